@@ -3,6 +3,7 @@ package skipper_demo;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import io.dropwizard.Application;
+import io.dropwizard.lifecycle.Managed;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
 import io.dropwizard.views.ViewBundle;
@@ -15,45 +16,132 @@ import io.github.rgamba.skipper.module.SkipperEngineFactory;
 import io.github.rgamba.skipper.module.TimerProcessorFactory;
 import io.github.rgamba.skipper.store.mysql.MySqlMigrationsManager;
 import lombok.val;
+import skipper_demo.operations.NettingOperations;
 import skipper_demo.operations.Operations;
 import skipper_demo.operations.VendingMachineOperations;
+import skipper_demo.resources.ReconciliationResource;
+import skipper_demo.resources.ReplayProfilerResource;
+import skipper_demo.resources.StandingOrdersResource;
 import skipper_demo.resources.TransfersResource;
 import skipper_demo.resources.VendingMachineResource;
-import skipper_demo.services.Ledger;
+import skipper_demo.services.FxRateTable;
+import skipper_demo.services.LedgerReconciler;
+import skipper_demo.services.NettingBook;
+import skipper_demo.services.PriorityLanes;
+import skipper_demo.services.ShardedLedger;
+import skipper_demo.services.StandingOrderRegistry;
+import skipper_demo.workflowHandlers.NettingSettlementCallbackHandler;
+import skipper_demo.workflowHandlers.RecurringTransferCallbackHandler;
 import skipper_demo.workflowHandlers.TransferCallbackHandler;
+import skipper_demo.workflowHandlers.TransferStatusNotifier;
 import skipper_demo.workflows.ApprovalWorkflow;
+import skipper_demo.workflows.NettedTransferWorkflow;
+import skipper_demo.workflows.NettingSettlementWorkflow;
+import skipper_demo.workflows.RecurringTransferWorkflow;
+import skipper_demo.workflows.ReplayProfiler;
 import skipper_demo.workflows.TransferWorkflow;
 import skipper_demo.workflows.VendingMachine;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
 public class DemoApp extends Application<DemoAppConfiguration> {
+    private static final String NETTING_CYCLE_ID = "netting";
+
     public static void main(String[] args) throws Exception {
         new DemoApp().run(args);
     }
 
     @Override
     public void run(DemoAppConfiguration appConfig, Environment environment) throws Exception {
-        Injector injector = Guice.createInjector(new DemoModule());
+        Injector injector = Guice.createInjector(new DemoModule(appConfig));
 
         MySqlMigrationsManager migrationMgr = injector.getInstance(MySqlMigrationsManager.class);
         migrationMgr.migrate();
 
+        // The notifier and the standing orders registry need the engine to look up workflow instances, and the engine
+        // needs them (through the callback handlers), so the lookup is resolved lazily.
+        val engineRef = new AtomicReference<SkipperEngine>();
+        val statusNotifier =
+                new TransferStatusNotifier(id -> new SkipperClient(engineRef.get()).getWorkflowInstance(id));
+        val reconciler = injector.getInstance(LedgerReconciler.class);
+        val standingOrders =
+                new StandingOrderRegistry(id -> new SkipperClient(engineRef.get()).getWorkflowInstance(id));
         val registry =
                 DependencyRegistry.builder()
                         .addWorkflowFactory(() -> injector.getInstance(TransferWorkflow.class))
                         .addWorkflowFactory(() -> injector.getInstance(ApprovalWorkflow.class))
                         .addWorkflowFactory(() -> injector.getInstance(VendingMachine.class))
+                        .addWorkflowFactory(() -> injector.getInstance(RecurringTransferWorkflow.class))
+                        .addWorkflowFactory(() -> injector.getInstance(NettedTransferWorkflow.class))
+                        .addWorkflowFactory(() -> injector.getInstance(NettingSettlementWorkflow.class))
                         .addOperation(injector.getInstance(Operations.class))
                         .addOperation(injector.getInstance(VendingMachineOperations.class))
-                        .addCallbackHandler(new TransferCallbackHandler())
+                        .addOperation(injector.getInstance(NettingOperations.class))
+                        .addCallbackHandler(new TransferCallbackHandler(statusNotifier, reconciler))
+                        .addCallbackHandler(new RecurringTransferCallbackHandler(standingOrders))
+                        .addCallbackHandler(
+                                new NettingSettlementCallbackHandler(
+                                        injector.getInstance(NettingBook.class),
+                                        appConfig.getNettingIntervalSeconds()))
                         .build();
         SkipperEngine engine = injector.getInstance(SkipperEngineFactory.class).create(registry);
+        engineRef.set(engine);
         TimerProcessor processor = injector.getInstance(TimerProcessorFactory.class).create(engine);
         processor.start();
+        if (appConfig.isNettingEnabled()) {
+            NettingSettlementCallbackHandler.resume(
+                    new SkipperClient(engine), NETTING_CYCLE_ID, appConfig.getNettingIntervalSeconds());
+        }
+
+        environment
+                .lifecycle()
+                .scheduledExecutorService("ledger-reconciliation")
+                .build()
+                .scheduleWithFixedDelay(
+                        () -> {
+                            try {
+                                reconciler.reconcile(false);
+                            } catch (RuntimeException e) {
+                                System.out.printf("\n\n>> Ledger reconciliation failed: %s\n\n", e.getMessage());
+                            }
+                        },
+                        appConfig.getReconciliationIntervalSeconds(),
+                        appConfig.getReconciliationIntervalSeconds(),
+                        TimeUnit.SECONDS);
+
+        val fxRates = injector.getInstance(FxRateTable.class);
+        fxRates.start(
+                environment.lifecycle().scheduledExecutorService("fx-rates").build(),
+                appConfig.getFxRefreshIntervalSeconds());
+
+        val lanes = injector.getInstance(PriorityLanes.class);
+        environment.lifecycle().manage(new Managed() {
+            @Override
+            public void start() {}
+
+            @Override
+            public void stop() {
+                lanes.shutdown();
+            }
+        });
 
-        val transfersResource = new TransfersResource(new SkipperClient(engine), injector.getInstance(Ledger.class));
-        val vendingMachineResource = new VendingMachineResource(new SkipperClient(engine));
+        val transfersResource =
+                new TransfersResource(
+                        new SkipperClient(engine),
+                        injector.getInstance(ShardedLedger.class),
+                        fxRates,
+                        appConfig.isNettingEnabled(),
+                        statusNotifier,
+                        lanes);
+        val vendingMachineResource = new VendingMachineResource(new SkipperClient(engine), lanes);
+        val standingOrdersResource =
+                new StandingOrdersResource(new SkipperClient(engine), standingOrders);
         environment.jersey().register(transfersResource);
+        environment.jersey().register(standingOrdersResource);
         environment.jersey().register(vendingMachineResource);
+        environment.jersey().register(new ReconciliationResource(reconciler));
+        environment.jersey().register(new ReplayProfilerResource(injector.getInstance(ReplayProfiler.class)));
         environment.jersey().register(new AdminResource(engine));
     }
 
@@ -1,6 +1,58 @@
 package skipper_demo;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import io.dropwizard.Configuration;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import skipper_demo.services.PriorityLanes;
 
+import java.util.EnumMap;
+import java.util.Map;
+
+@Getter
+@Setter
 public class DemoAppConfiguration extends Configuration {
+  // Number of in-process shards the accounts are partitioned across.
+  @JsonProperty private int ledgerShards = 4;
+  // When enabled, transfers below `TransferWorkflow.AMOUNT_APPROVAL_THRESHOLD` are netted per pair of accounts and
+  // settled in batches every `nettingIntervalSeconds`.
+  @JsonProperty private boolean nettingEnabled = false;
+  @JsonProperty private long nettingIntervalSeconds = 10;
+  // How often the ledger is reconciled in the background. Runs are incremental, so only changed accounts are checked.
+  @JsonProperty private long reconciliationIntervalSeconds = 60;
+  // The ledger circuit breaker opens after this many consecutive failures, and stays open for this many seconds.
+  @JsonProperty private int ledgerCircuitBreakerFailureThreshold = 5;
+  @JsonProperty private long ledgerCircuitBreakerOpenSeconds = 10;
+  // How often the in-memory FX rate table is refreshed from the rate provider.
+  @JsonProperty private long fxRefreshIntervalSeconds = 30;
+  // Replays of the profiled workflows are timed while this is enabled (see `ReplayProfiler`). Their state is also
+  // serialized to measure its size every `replayStateSizeSampleRate` replays, or never when 0.
+  @JsonProperty private boolean replayProfilerEnabled = true;
+  @JsonProperty private int replayStateSizeSampleRate = 20;
+  // Capacity of every priority lane. Lanes that are not configured keep their defaults.
+  @JsonProperty private Map<PriorityLanes.Lane, LaneConfig> priorityLanes = new EnumMap<>(PriorityLanes.Lane.class);
+
+  public LaneConfig getLaneConfig(PriorityLanes.Lane lane) {
+    LaneConfig laneConfig = priorityLanes.get(lane);
+    if (laneConfig != null) {
+      return laneConfig;
+    }
+    switch (lane) {
+      case INSTANT:
+        return new LaneConfig(32, 1000);
+      default:
+        return new LaneConfig(8, 200);
+    }
+  }
+
+  @Getter
+  @Setter
+  @NoArgsConstructor
+  @AllArgsConstructor
+  public static class LaneConfig {
+    @JsonProperty private int maxConcurrency;
+    @JsonProperty private int queueLimit;
+  }
 }
@@ -2,19 +2,79 @@ package skipper_demo;
 
 import com.google.inject.AbstractModule;
 import com.google.inject.Provides;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
 import io.github.rgamba.skipper.OperationProxyFactory;
 import io.github.rgamba.skipper.api.annotations.WorkflowOperation;
 import io.github.rgamba.skipper.module.SkipperModule;
+import lombok.NonNull;
 import skipper_demo.operations.Operations;
-import skipper_demo.services.Ledger;
+import skipper_demo.services.CircuitBreaker;
+import skipper_demo.services.FxRateProvider;
+import skipper_demo.services.LedgerError;
+import skipper_demo.services.PriorityLanes;
+import skipper_demo.services.ShardedLedger;
+import skipper_demo.services.StubFxRateProvider;
+import skipper_demo.workflows.ReplayProfiler;
+import skipper_demo.workflows.TransferWorkflow;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
 
 public class DemoModule extends AbstractModule {
+  private final DemoAppConfiguration config;
+
+  public DemoModule(@NonNull DemoAppConfiguration config) {
+    this.config = config;
+  }
+
   @Override
   protected void configure() {
     install(
         new SkipperModule(
             "jdbc:mysql://db:3306/skipper?serverTimezone=UTC", "skipper", "skipper"));
-    bind(Ledger.class).toInstance(new Ledger());
+    bind(ShardedLedger.class).toInstance(ShardedLedger.local(config.getLedgerShards()));
+    bind(FxRateProvider.class).to(StubFxRateProvider.class);
+  }
+
+  @Provides
+  @Singleton
+  @Named(Operations.LEDGER_CIRCUIT_BREAKER)
+  CircuitBreaker provideLedgerCircuitBreaker() {
+    Duration openDuration = Duration.ofSeconds(config.getLedgerCircuitBreakerOpenSeconds());
+    // Transfers keep retrying while the breaker is open, so their retries must outlast it.
+    Duration retryBudget = TransferWorkflow.LEDGER_RETRY_STRATEGY.minTotalDelay();
+    if (openDuration.compareTo(retryBudget) >= 0) {
+      throw new IllegalArgumentException(
+          String.format(
+              "ledgerCircuitBreakerOpenSeconds must be shorter than the ledger retry budget (%dms)",
+              retryBudget.toMillis()));
+    }
+    return new CircuitBreaker(
+        Operations.LEDGER_CIRCUIT_BREAKER,
+        config.getLedgerCircuitBreakerFailureThreshold(),
+        openDuration,
+        LedgerError.class);
+  }
+
+  @Provides
+  @Singleton
+  ReplayProfiler provideReplayProfiler() {
+    return new ReplayProfiler(config.isReplayProfilerEnabled(), config.getReplayStateSizeSampleRate());
+  }
+
+  @Provides
+  @Singleton
+  PriorityLanes providePriorityLanes() {
+    Map<PriorityLanes.Lane, PriorityLanes.Limits> limits = new EnumMap<>(PriorityLanes.Lane.class);
+    for (PriorityLanes.Lane lane : PriorityLanes.Lane.values()) {
+      DemoAppConfiguration.LaneConfig laneConfig = config.getLaneConfig(lane);
+      limits.put(
+          lane,
+          new PriorityLanes.Limits(laneConfig.getMaxConcurrency(), laneConfig.getQueueLimit()));
+    }
+    return new PriorityLanes(limits, TransferWorkflow.AMOUNT_APPROVAL_THRESHOLD);
   }
 
   @Provides
@@ -22,4 +82,4 @@ public class DemoModule extends AbstractModule {
   static skipper_demo.operations.Operations provideGreeterOperation() {
     return OperationProxyFactory.create(Operations.class);
   }
-}
\ No newline at end of file
+}
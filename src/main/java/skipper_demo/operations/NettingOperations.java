@@ -0,0 +1,37 @@
+package skipper_demo.operations;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import lombok.NonNull;
+import skipper_demo.services.NettingBook;
+
+// Operations used by the netting workflows to interact with the netting book. Like any other operation, these must
+// be idempotent.
+@Singleton
+public class NettingOperations {
+  private final NettingBook nettingBook;
+
+  // TODO: Default constructor needed for proxy creation, figure a way around this.
+  public NettingOperations() {
+    nettingBook = null;
+  }
+
+  @Inject
+  public NettingOperations(@NonNull NettingBook nettingBook) {
+    this.nettingBook = nettingBook;
+  }
+
+  // Returns false if the transfer was already drained into a batch, which can only happen when this operation is
+  // retried after the batch was drained. The transfer is part of that batch, so there is nothing else to do.
+  public boolean enqueue(String transferId, String from, String to, int amount, int fee) {
+    return nettingBook.enqueue(transferId, from, to, amount, fee);
+  }
+
+  public NettingBook.CancelOutcome cancelPending(String transferId) {
+    return nettingBook.cancel(transferId);
+  }
+
+  public NettingBook.SettlementBatch drainBatch(String batchId) {
+    return nettingBook.drain(batchId);
+  }
+}
@@ -2,26 +2,60 @@ package skipper_demo.operations;
 
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.google.inject.name.Named;
 import lombok.NonNull;
 import lombok.val;
-import skipper_demo.services.Ledger;
+import skipper_demo.services.CircuitBreaker;
+import skipper_demo.services.FxQuote;
+import skipper_demo.services.FxRateTable;
 import skipper_demo.services.LedgerError;
+import skipper_demo.services.PriorityLanes;
+import skipper_demo.services.ShardedLedger;
 
 // In skipper, any class can be considered a workflow operation.
 // The operation can expose one or more methods that can be called from a workflow.
 @Singleton
 public class Operations {
 
-  private final Ledger ledger;
+  public static final String LEDGER_CIRCUIT_BREAKER = "ledger";
+
+  private final ShardedLedger ledger;
+  // Shared by all the ledger operations. While the ledger is unhealthy, operations fail fast (and are retried later
+  // by skipper) instead of adding more load to it.
+  private final CircuitBreaker ledgerCircuitBreaker;
+  private final FxRateTable fxRates;
+  // Postings of small transfers, postings of large ones and approval notifications each run within their own lane, so
+  // a burst of large transfers can't take all the operation threads.
+  private final PriorityLanes lanes;
 
   // TODO: Default constructor needed for proxy creation, figure a way around this.
   public Operations() {
     ledger = null;
+    ledgerCircuitBreaker = null;
+    fxRates = null;
+    lanes = null;
   }
 
   @Inject
-  public Operations(@NonNull Ledger ledger) {
+  public Operations(
+      @NonNull ShardedLedger ledger,
+      @NonNull @Named(LEDGER_CIRCUIT_BREAKER) CircuitBreaker ledgerCircuitBreaker,
+      @NonNull FxRateTable fxRates,
+      @NonNull PriorityLanes lanes) {
     this.ledger = ledger;
+    this.ledgerCircuitBreaker = ledgerCircuitBreaker;
+    this.fxRates = fxRates;
+    this.lanes = lanes;
+  }
+
+  // Returns the rates to use for a transfer between the given accounts, based on their currencies. This only reads
+  // the in-memory rate table. Being an operation, the quote is recorded in the workflow history, so the workflow
+  // keeps using the same rates when it is replayed even if the table has been refreshed since.
+  public FxQuote quoteTransfer(String from, String to) throws LedgerError {
+    return fxRates.quote(
+        ledger.getCurrency(from),
+        ledger.getCurrency(to),
+        ledger.getCurrency(ShardedLedger.SYSTEM_ACCOUNT));
   }
 
   // Every public method in this class is considered a workflow operation.
@@ -34,10 +68,21 @@ public class Operations {
   //
   // Conversely, all other exceptions are considered transient and will be retried by skipper following the
   // retry policy in the workflow for the given operation.
-  public String withdraw(String accountId, int amount, String idempotencyToken) throws LedgerError {
-    return ledger.withdraw(accountId, amount, "transfer sent", idempotencyToken);
+  //
+  // The lane is chosen by the workflow from the transfer it belongs to, not from the posting amount: with the fee, the
+  // conversions and the net positions, the postings of a single transfer may fall on both sides of the threshold.
+  public String withdraw(
+      String accountId, int amount, PriorityLanes.Lane lane, String idempotencyToken)
+      throws LedgerError {
+    return lanes.call(
+        lane,
+        () ->
+            ledgerCircuitBreaker.call(
+                () -> ledger.withdraw(accountId, amount, "transfer sent", idempotencyToken)));
   }
 
+  // The rollbacks don't go through the circuit breaker: they run exactly when the ledger is failing, and failing
+  // them fast would leave money withdrawn but never refunded. They are rare, so they don't add much load either.
   public boolean rollbackWithdraw(String creditId, String idempotencyKey) throws LedgerError {
     val transaction = ledger.getTransaction(creditId);
     ledger.deposit(
@@ -45,21 +90,28 @@ public class Operations {
     return true;
   }
 
-  public String deposit(String account, int amount, String idempotencyKey) throws LedgerError {
-    return ledger.deposit(account, amount, "transfer received", idempotencyKey);
+  public String deposit(String account, int amount, PriorityLanes.Lane lane, String idempotencyKey)
+      throws LedgerError {
+    return lanes.call(
+        lane,
+        () ->
+            ledgerCircuitBreaker.call(
+                () -> ledger.deposit(account, amount, "transfer received", idempotencyKey)));
   }
 
   public boolean rollbackDeposit(String debitId, String idempotencyKey) {
     val transaction = ledger.getTransaction(debitId);
     ledger.withdraw(
-        transaction.getUserId(),
-        transaction.getAmount(),
-        "transfer receive rollback",
-        idempotencyKey);
+        transaction.getUserId(), transaction.getAmount(), "transfer receive rollback", idempotencyKey);
     return true;
   }
 
   public void notifyApprovalRequest(String account, Integer amount) {
-    return;
+    lanes.call(
+        PriorityLanes.Lane.APPROVAL,
+        () -> {
+          // This is where the approver would be notified, e.g. by sending out an email.
+          return null;
+        });
   }
 }
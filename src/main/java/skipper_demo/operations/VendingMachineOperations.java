@@ -1,17 +1,34 @@
 package skipper_demo.operations;
 
+import com.google.inject.Inject;
+import lombok.NonNull;
+import skipper_demo.services.PriorityLanes;
+
 import java.util.List;
 
 public class VendingMachineOperations {
+    // Vending operations run within their own lane, so a busy vending floor can't slow down the transfers.
+    private final PriorityLanes lanes;
+
+    // TODO: Default constructor needed for proxy creation, figure a way around this.
+    public VendingMachineOperations() {
+        lanes = null;
+    }
+
+    @Inject
+    public VendingMachineOperations(@NonNull PriorityLanes lanes) {
+        this.lanes = lanes;
+    }
+
     public void dispense(List<String> cart) {
-        System.out.printf("Dispensing: %s%n", cart);
+        lanes.call(PriorityLanes.Lane.VENDING, () -> System.out.printf("Dispensing: %s%n", cart));
     }
 
     public void returnChange(int amount) {
-        System.out.printf("Returning change: %d%n", amount);
+        lanes.call(PriorityLanes.Lane.VENDING, () -> System.out.printf("Returning change: %d%n", amount));
     }
 
     public void returnCoins(int balance) {
-        System.out.printf("Returning coins: %d%n", balance);
+        lanes.call(PriorityLanes.Lane.VENDING, () -> System.out.printf("Returning coins: %d%n", balance));
     }
 }
@@ -0,0 +1,44 @@
+package skipper_demo.resources;
+
+import lombok.NonNull;
+import skipper_demo.services.LaneRejectedException;
+import skipper_demo.services.PriorityLanes;
+
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.container.AsyncResponse;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+// Runs the work of a request in its priority lane and resumes the (suspended) request with the result. If the lane is
+// at capacity the request is rejected right away with a 503, so clients back off instead of piling up.
+class LaneDispatcher {
+  private static final long RETRY_AFTER_SECONDS = 1;
+
+  private final PriorityLanes lanes;
+
+  LaneDispatcher(@NonNull PriorityLanes lanes) {
+    this.lanes = lanes;
+  }
+
+  PriorityLanes.Lane laneForTransfer(int amount) {
+    return lanes.laneForTransfer(amount);
+  }
+
+  <T> void dispatch(
+      @NonNull PriorityLanes.Lane lane, @NonNull AsyncResponse response, @NonNull Supplier<T> work) {
+    try {
+      lanes
+          .submit(lane, work)
+          .whenComplete(
+              (result, error) -> {
+                if (error == null) {
+                  response.resume(result);
+                } else {
+                  response.resume(error instanceof CompletionException ? error.getCause() : error);
+                }
+              });
+    } catch (LaneRejectedException e) {
+      response.resume(new ServiceUnavailableException(e.getMessage(), RETRY_AFTER_SECONDS));
+    }
+  }
+}
@@ -0,0 +1,38 @@
+package skipper_demo.resources;
+
+import lombok.NonNull;
+import skipper_demo.services.LedgerReconciler;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+@Path("/reconciliation")
+@Produces(MediaType.APPLICATION_JSON)
+public class ReconciliationResource {
+  private final LedgerReconciler reconciler;
+
+  public ReconciliationResource(@NonNull LedgerReconciler reconciler) {
+    this.reconciler = reconciler;
+  }
+
+  @GET
+  @Path("/")
+  public LedgerReconciler.ReconciliationReport getLastReport() {
+    LedgerReconciler.ReconciliationReport report = reconciler.getLastReport();
+    if (report == null) {
+      throw new NotFoundException("no reconciliation has run yet");
+    }
+    return report;
+  }
+
+  @POST
+  @Path("/run")
+  public LedgerReconciler.ReconciliationReport runReconciliation(@QueryParam("full") boolean full) {
+    try {
+      return reconciler.reconcile(full);
+    } catch (IllegalStateException e) {
+      throw new WebApplicationException(e.getMessage(), Response.Status.CONFLICT);
+    }
+  }
+}
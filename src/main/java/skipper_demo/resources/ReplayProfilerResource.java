@@ -0,0 +1,29 @@
+package skipper_demo.resources;
+
+import lombok.NonNull;
+import skipper_demo.workflows.ReplayProfiler;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.MediaType;
+
+@Path("/replay-profile")
+@Produces(MediaType.APPLICATION_JSON)
+public class ReplayProfilerResource {
+  private final ReplayProfiler profiler;
+
+  public ReplayProfilerResource(@NonNull ReplayProfiler profiler) {
+    this.profiler = profiler;
+  }
+
+  @GET
+  @Path("/")
+  public ReplayProfiler.Report getReport() {
+    return profiler.getReport();
+  }
+
+  @DELETE
+  @Path("/")
+  public void reset() {
+    profiler.reset();
+  }
+}
@@ -0,0 +1,67 @@
+package skipper_demo.resources;
+
+import io.github.rgamba.skipper.client.SkipperClient;
+import io.github.rgamba.skipper.models.WorkflowInstance;
+import lombok.NonNull;
+import lombok.val;
+import skipper_demo.services.StandingOrderRegistry;
+import skipper_demo.workflowHandlers.RecurringTransferCallbackHandler;
+import skipper_demo.workflows.RecurringTransferWorkflow;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.MediaType;
+import java.util.UUID;
+
+@Path("/standing-orders")
+@Produces(MediaType.APPLICATION_JSON)
+public class StandingOrdersResource {
+  private final SkipperClient client;
+  private final StandingOrderRegistry standingOrders;
+
+  public StandingOrdersResource(
+      @NonNull SkipperClient engine, @NonNull StandingOrderRegistry standingOrders) {
+    this.client = engine;
+    this.standingOrders = standingOrders;
+  }
+
+  @POST
+  @Path("/")
+  public WorkflowInstance createStandingOrder(
+      @QueryParam("amount") int amount,
+      @QueryParam("intervalSeconds") long intervalSeconds,
+      @NonNull @QueryParam("from") String sender,
+      @NonNull @QueryParam("to") String receiver) {
+    String standingOrderId = UUID.randomUUID().toString();
+    String instanceId = RecurringTransferWorkflow.instanceId(standingOrderId, 0);
+    standingOrders.register(standingOrderId);
+    val response =
+        client.createWorkflowInstance(
+            RecurringTransferWorkflow.class,
+            instanceId,
+            RecurringTransferCallbackHandler.class,
+            standingOrderId,
+            0,
+            sender,
+            receiver,
+            amount,
+            intervalSeconds);
+    return response.getWorkflowInstance();
+  }
+
+  @GET
+  @Path("/{id}")
+  public WorkflowInstance getStandingOrder(@PathParam("id") String id) {
+    return standingOrders.getCurrentInstance(id).orElseThrow(NotFoundException::new);
+  }
+
+  @POST
+  @Path("/{id}/cancel")
+  public void cancelStandingOrder(@PathParam("id") String id) {
+    val instance = standingOrders.cancel(id).orElseThrow(NotFoundException::new);
+    // If the instance is already done, the callback handler sees the cancellation before continuing the standing
+    // order, and signals the next generation if it was created in the meantime.
+    if (!instance.getStatus().isCompleted() && !instance.getStatus().isError()) {
+      client.sendInputSignal(instance.getId(), "cancel", "cancelled by the user");
+    }
+  }
+}
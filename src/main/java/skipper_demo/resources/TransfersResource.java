@@ -1,27 +1,78 @@
 package skipper_demo.resources;
 
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import io.github.rgamba.skipper.client.SkipperClient;
 import io.github.rgamba.skipper.models.WorkflowInstance;
 import lombok.NonNull;
+import lombok.Value;
 import lombok.val;
-import skipper_demo.services.Ledger;
+import skipper_demo.services.FxRateTable;
+import skipper_demo.services.LedgerError;
+import skipper_demo.services.PriorityLanes;
+import skipper_demo.services.ShardedLedger;
 import skipper_demo.workflowHandlers.TransferCallbackHandler;
+import skipper_demo.workflowHandlers.TransferStatusNotifier;
+import skipper_demo.workflows.NettedTransferWorkflow;
 import skipper_demo.workflows.TransferWorkflow;
 
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 @Path("/transfers")
 @Produces(MediaType.APPLICATION_JSON)
 public class TransfersResource {
+  public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+  private static final int MAX_CACHED_IDEMPOTENCY_KEYS = 100_000;
+  private static final long IDEMPOTENCY_KEY_TTL_HOURS = 24;
+  private static final long DEFAULT_EVENTS_TIMEOUT_SECONDS = 30;
+  private static final long MAX_EVENTS_TIMEOUT_SECONDS = 120;
+  private static final int MAX_EVENTS_IDS = 1000;
+  private static final int UNPROCESSABLE_ENTITY = 422;
+
   private final SkipperClient client;
-  private final Ledger ledger;
+  private final ShardedLedger ledger;
+  private final FxRateTable fxRates;
+  private final boolean nettingEnabled;
+  private final TransferStatusNotifier statusNotifier;
+  private final LaneDispatcher laneDispatcher;
+  // Transfers recently created with an idempotency key, indexed by workflow instance id. Client retries are answered
+  // from here without going to the store, and a key reused with different parameters is rejected. Entries that were
+  // evicted (or created by another node) are still deduped, because the key always maps to the same workflow instance
+  // id, but their parameters can no longer be checked.
+  private final Cache<String, IdempotentTransfer> recentTransfers =
+      CacheBuilder.newBuilder()
+          .maximumSize(MAX_CACHED_IDEMPOTENCY_KEYS)
+          .expireAfterWrite(IDEMPOTENCY_KEY_TTL_HOURS, TimeUnit.HOURS)
+          .build();
 
-  public TransfersResource(@NonNull SkipperClient engine, @NonNull Ledger ledger) {
+  public TransfersResource(
+      @NonNull SkipperClient engine,
+      @NonNull ShardedLedger ledger,
+      @NonNull FxRateTable fxRates,
+      boolean nettingEnabled,
+      @NonNull TransferStatusNotifier statusNotifier,
+      @NonNull PriorityLanes lanes) {
     this.client = engine;
     this.ledger = ledger;
+    this.fxRates = fxRates;
+    this.nettingEnabled = nettingEnabled;
+    this.statusNotifier = statusNotifier;
+    this.laneDispatcher = new LaneDispatcher(lanes);
   }
 
   @GET
@@ -30,33 +81,207 @@ public class TransfersResource {
     return client.getWorkflowInstance(id);
   }
 
+  // Long-polls the status of a transfer: responds as soon as it changes after `since` (the version of the last event
+  // the client received, 0 initially), or with an empty list after `timeoutSeconds`. Clients must send back the
+  // `epoch` of that same event too, otherwise `since` is ignored.
+  @GET
+  @Path("/{id}/events")
+  public void getWorkflowInstanceEvents(
+      @PathParam("id") String id,
+      @QueryParam("epoch") String epoch,
+      @QueryParam("since") long since,
+      @QueryParam("timeoutSeconds") Long timeoutSeconds,
+      @Suspended AsyncResponse response) {
+    statusNotifier.subscribe(
+        Collections.singleton(id), epoch, since, eventsTimeout(timeoutSeconds), response);
+  }
+
+  // Same as above, but for many transfers at once (comma separated ids) over a single connection.
+  @GET
+  @Path("/events")
+  public void getEvents(
+      @NonNull @QueryParam("ids") String ids,
+      @QueryParam("epoch") String epoch,
+      @QueryParam("since") long since,
+      @QueryParam("timeoutSeconds") Long timeoutSeconds,
+      @Suspended AsyncResponse response) {
+    Set<String> transferIds = new LinkedHashSet<>();
+    for (String id : Arrays.asList(ids.split(","))) {
+      if (!id.trim().isEmpty()) {
+        transferIds.add(id.trim());
+      }
+    }
+    if (transferIds.isEmpty() || transferIds.size() > MAX_EVENTS_IDS) {
+      throw new BadRequestException(
+          String.format("between 1 and %d transfer ids are required", MAX_EVENTS_IDS));
+    }
+    statusNotifier.subscribe(transferIds, epoch, since, eventsTimeout(timeoutSeconds), response);
+  }
+
+  private static long eventsTimeout(Long timeoutSeconds) {
+    if (timeoutSeconds == null || timeoutSeconds <= 0) {
+      return DEFAULT_EVENTS_TIMEOUT_SECONDS;
+    }
+    return Math.min(timeoutSeconds, MAX_EVENTS_TIMEOUT_SECONDS);
+  }
+
   @GET
   @Path("/balances")
   public Map<String, Integer> getBalances() {
     return ledger.getBalances();
   }
 
+  @POST
+  @Path("/accounts/{account}")
+  public void openAccount(
+      @PathParam("account") String account, @NonNull @QueryParam("currency") String currency) {
+    if (!fxRates.isSupported(currency)) {
+      throw new BadRequestException(String.format("unsupported currency: %s", currency));
+    }
+    try {
+      ledger.openAccount(account, currency, 0);
+    } catch (LedgerError e) {
+      // The account already exists in another currency. Its currency can't be changed, so we must not report success.
+      throw new ClientErrorException(e.getMessage(), Response.Status.CONFLICT);
+    }
+  }
+
+  @GET
+  @Path("/fx-rates")
+  public FxRateTable.Snapshot getFxRates() {
+    return fxRates.getSnapshot();
+  }
+
+  // Transfers are created in the lane that matches their amount, so small transfers don't queue behind the ones that
+  // need approval.
   @POST
   @Path("/")
-  public WorkflowInstance initiateTransfer(
+  public void initiateTransfer(
+      @HeaderParam(IDEMPOTENCY_KEY_HEADER) String idempotencyKey,
       @QueryParam("amount") int amount,
       @NonNull @QueryParam("from") String sender,
-      @NonNull @QueryParam("to") String receiver) {
+      @NonNull @QueryParam("to") String receiver,
+      @Suspended AsyncResponse response) {
+    laneDispatcher.dispatch(
+        laneDispatcher.laneForTransfer(amount),
+        response,
+        () -> initiateTransfer(idempotencyKey, amount, sender, receiver));
+  }
+
+  WorkflowInstance initiateTransfer(
+      String idempotencyKey, int amount, String sender, String receiver) {
+    if (idempotencyKey == null || idempotencyKey.isEmpty()) {
+      return createTransfer(UUID.randomUUID().toString(), sender, receiver, amount);
+    }
+    String workflowId = workflowIdFor(sender, idempotencyKey);
+    IdempotentTransfer transfer;
+    try {
+      // Concurrent retries with the same key block on the same cache entry, so only one of them creates the instance.
+      transfer =
+          recentTransfers.get(
+              workflowId,
+              () ->
+                  new IdempotentTransfer(
+                      receiver, amount, createOrGetTransfer(workflowId, sender, receiver, amount)));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new RuntimeException(e.getCause());
+    }
+    if (!transfer.getReceiver().equals(receiver) || transfer.getAmount() != amount) {
+      throw new ClientErrorException(
+          String.format("%s was already used for a different transfer", IDEMPOTENCY_KEY_HEADER),
+          UNPROCESSABLE_ENTITY);
+    }
+    return transfer.getWorkflowInstance();
+  }
+
+  // Keys are scoped by sender, so two clients that happen to pick the same key don't get each other's transfers. The
+  // length prefix keeps (sender, key) pairs from colliding when they contain the separator.
+  static String workflowIdFor(@NonNull String sender, @NonNull String idempotencyKey) {
+    return UUID.nameUUIDFromBytes(
+            String.format("transfer:%d:%s:%s", sender.length(), sender, idempotencyKey)
+                .getBytes(StandardCharsets.UTF_8))
+        .toString();
+  }
+
+  private WorkflowInstance createOrGetTransfer(
+      String workflowId, String sender, String receiver, int amount) {
+    try {
+      return createTransfer(workflowId, sender, receiver, amount);
+    } catch (RuntimeException e) {
+      // The instance id is already taken, which means this is a retry whose original request is no longer cached.
+      WorkflowInstance existing;
+      try {
+        existing = client.getWorkflowInstance(workflowId);
+      } catch (RuntimeException notFound) {
+        e.addSuppressed(notFound);
+        throw e;
+      }
+      if (existing == null) {
+        throw e;
+      }
+      return existing;
+    }
+  }
+
+  private WorkflowInstance createTransfer(
+      String workflowId, String sender, String receiver, int amount) {
+    if (isNettingEligible(sender, receiver, amount)) {
+      val response =
+          client.createWorkflowInstance(
+              NettedTransferWorkflow.class,
+              workflowId,
+              TransferCallbackHandler.class,
+              workflowId,
+              sender,
+              receiver,
+              amount);
+      return response.getWorkflowInstance();
+    }
     val response =
         client.createWorkflowInstance(
             TransferWorkflow.class,
-            UUID.randomUUID().toString(),
+            workflowId,
             TransferCallbackHandler.class,
+            workflowId,
             sender,
             receiver,
             amount);
     return response.getWorkflowInstance();
   }
 
+  // Net positions are settled without conversions, so only transfers in the system account's currency are netted.
+  private boolean isNettingEligible(String sender, String receiver, int amount) {
+    if (!nettingEnabled
+        || amount <= 0
+        || amount >= TransferWorkflow.AMOUNT_APPROVAL_THRESHOLD
+        || sender.equals(receiver)) {
+      return false;
+    }
+    String currency = ledger.getCurrency(ShardedLedger.SYSTEM_ACCOUNT);
+    return currency.equals(ledger.getCurrency(sender)) && currency.equals(ledger.getCurrency(receiver));
+  }
+
   @POST
   @Path("/{id}/set-approval")
   public void setManualApproval(
-      @PathParam("id") String id, @QueryParam("isApproved") boolean isApproved) {
-    client.sendInputSignal(id, "approveTransfer", isApproved);
+      @PathParam("id") String id,
+      @QueryParam("isApproved") boolean isApproved,
+      @Suspended AsyncResponse response) {
+    laneDispatcher.dispatch(
+        PriorityLanes.Lane.APPROVAL,
+        response,
+        () -> {
+          client.sendInputSignal(id, "approveTransfer", isApproved);
+          return null;
+        });
+  }
+
+  // The sender is part of the cache key already.
+  @Value
+  private static class IdempotentTransfer {
+    String receiver;
+    int amount;
+    WorkflowInstance workflowInstance;
   }
 }
@@ -1,15 +1,14 @@
 package skipper_demo.resources;
 
 import io.github.rgamba.skipper.client.SkipperClient;
-import io.github.rgamba.skipper.models.WorkflowInstance;
 import lombok.NonNull;
 import lombok.val;
-import skipper_demo.services.Ledger;
-import skipper_demo.workflowHandlers.TransferCallbackHandler;
-import skipper_demo.workflows.TransferWorkflow;
+import skipper_demo.services.PriorityLanes;
 import skipper_demo.workflows.VendingMachine;
 
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.MediaType;
 import java.util.UUID;
 
@@ -17,29 +16,46 @@ import java.util.UUID;
 @Produces(MediaType.APPLICATION_JSON)
 public class VendingMachineResource {
     private final SkipperClient client;
-    public VendingMachineResource(@NonNull SkipperClient engine) {
+    // All vending requests run in the vending lane, so a surge of vending sessions doesn't delay transfers.
+    private final LaneDispatcher laneDispatcher;
+
+    public VendingMachineResource(@NonNull SkipperClient engine, @NonNull PriorityLanes lanes) {
         this.client = engine;
+        this.laneDispatcher = new LaneDispatcher(lanes);
     }
 
     @POST
     @Path("/")
-    public WorkflowInstance startSession() {
-        val response =
-                client.createWorkflowInstance(
-                        VendingMachine.class,
-                        UUID.randomUUID().toString());
-        return response.getWorkflowInstance();
+    public void startSession(@Suspended AsyncResponse asyncResponse) {
+        laneDispatcher.dispatch(PriorityLanes.Lane.VENDING, asyncResponse, () -> {
+            // The session id is passed in as well, so the session can be profiled on its own.
+            val sessionId = UUID.randomUUID().toString();
+            val response =
+                    client.createWorkflowInstance(
+                            VendingMachine.class,
+                            sessionId,
+                            sessionId);
+            return response.getWorkflowInstance();
+        });
     }
 
     @POST
     @Path("/{id}/add-product")
-    public void addProduct(@PathParam("id") String id, @QueryParam("product") String product) {
-        client.sendInputSignal(id, "addProduct", product);
+    public void addProduct(
+            @PathParam("id") String id, @QueryParam("product") String product, @Suspended AsyncResponse asyncResponse) {
+        laneDispatcher.dispatch(PriorityLanes.Lane.VENDING, asyncResponse, () -> {
+            client.sendInputSignal(id, "addProduct", product);
+            return null;
+        });
     }
 
     @POST
     @Path("/{id}/add-coin")
-    public void addProduct(@PathParam("id") String id, @QueryParam("amount") Integer coins) {
-        client.sendInputSignal(id, "insertCoin", coins);
+    public void addProduct(
+            @PathParam("id") String id, @QueryParam("amount") Integer coins, @Suspended AsyncResponse asyncResponse) {
+        laneDispatcher.dispatch(PriorityLanes.Lane.VENDING, asyncResponse, () -> {
+            client.sendInputSignal(id, "insertCoin", coins);
+            return null;
+        });
     }
 }
@@ -0,0 +1,148 @@
+package skipper_demo.services;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Value;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.function.Supplier;
+
+// Stops calling a dependency that keeps failing, so that callers fail fast instead of piling more load on it.
+//
+// After `failureThreshold` consecutive failures the breaker opens and every call is rejected for `openDuration`.
+// After that, a single trial call is let through (half-open): if it succeeds the breaker closes again, otherwise it
+// stays open for another `openDuration`. Exceptions of the `ignored` type are business errors (e.g. `LedgerError`)
+// that say nothing about the health of the dependency, so they don't count as failures.
+public class CircuitBreaker {
+  public enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  @Getter private final String name;
+  private final int failureThreshold;
+  private final Duration openDuration;
+  private final Class<? extends RuntimeException> ignored;
+  private final Clock clock;
+
+  private State state = State.CLOSED;
+  private int consecutiveFailures = 0;
+  private Instant openedAt = Instant.EPOCH;
+  private boolean trialInFlight = false;
+  // Bumped on every state change, so that we can tell which state a call was let through in.
+  private long generation = 0;
+
+  public CircuitBreaker(
+      @NonNull String name,
+      int failureThreshold,
+      @NonNull Duration openDuration,
+      @NonNull Class<? extends RuntimeException> ignored) {
+    this(name, failureThreshold, openDuration, ignored, Clock.systemUTC());
+  }
+
+  public CircuitBreaker(
+      @NonNull String name,
+      int failureThreshold,
+      @NonNull Duration openDuration,
+      @NonNull Class<? extends RuntimeException> ignored,
+      @NonNull Clock clock) {
+    if (failureThreshold <= 0) {
+      throw new IllegalArgumentException("failureThreshold must be greater than zero");
+    }
+    this.name = name;
+    this.failureThreshold = failureThreshold;
+    this.openDuration = openDuration;
+    this.ignored = ignored;
+    this.clock = clock;
+  }
+
+  public <T> T call(@NonNull Supplier<T> call) {
+    Permit permit = acquire();
+    boolean succeeded = false;
+    try {
+      T result = call.get();
+      succeeded = true;
+      return result;
+    } catch (RuntimeException e) {
+      succeeded = ignored.isInstance(e);
+      throw e;
+    } finally {
+      // Anything else thrown (e.g. an Error) counts as a failure. Every permit must be given back, or a trial that
+      // never returned would keep the breaker half-open and rejecting every call.
+      if (succeeded) {
+        onSuccess(permit);
+      } else {
+        onFailure(permit);
+      }
+    }
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  private synchronized Permit acquire() {
+    if (state == State.OPEN) {
+      if (clock.instant().isBefore(openedAt.plus(openDuration))) {
+        throw new CircuitBreakerOpenException(name);
+      }
+      transitionTo(State.HALF_OPEN);
+    }
+    if (state == State.HALF_OPEN) {
+      if (trialInFlight) {
+        throw new CircuitBreakerOpenException(name);
+      }
+      trialInFlight = true;
+      return new Permit(generation, true);
+    }
+    return new Permit(generation, false);
+  }
+
+  // A slow call may finish after the breaker already changed state (e.g. it started while closed and ends after the
+  // breaker opened). Its outcome says nothing about the current state, so results from an earlier generation are
+  // ignored, and in half-open only the trial call decides.
+  private synchronized void onSuccess(Permit permit) {
+    if (permit.getGeneration() != generation) {
+      return;
+    }
+    if (permit.isTrial()) {
+      trialInFlight = false;
+      transitionTo(State.CLOSED);
+    }
+    consecutiveFailures = 0;
+  }
+
+  private synchronized void onFailure(Permit permit) {
+    if (permit.getGeneration() != generation) {
+      return;
+    }
+    if (permit.isTrial()) {
+      trialInFlight = false;
+      transitionTo(State.OPEN);
+      return;
+    }
+    consecutiveFailures++;
+    if (consecutiveFailures >= failureThreshold) {
+      transitionTo(State.OPEN);
+    }
+  }
+
+  private void transitionTo(State newState) {
+    state = newState;
+    generation++;
+    consecutiveFailures = 0;
+    if (newState == State.OPEN) {
+      openedAt = clock.instant();
+    }
+  }
+
+  @Value
+  private static class Permit {
+    long generation;
+    // Whether this is the single call let through while half-open.
+    boolean trial;
+  }
+}
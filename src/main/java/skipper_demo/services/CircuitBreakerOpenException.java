@@ -0,0 +1,9 @@
+package skipper_demo.services;
+
+// Thrown instead of calling a dependency while its circuit breaker is open. It is unchecked, so skipper treats it as
+// a transient error and retries the operation later following its retry strategy.
+public class CircuitBreakerOpenException extends RuntimeException {
+  public CircuitBreakerOpenException(String name) {
+    super(String.format("circuit breaker %s is open", name));
+  }
+}
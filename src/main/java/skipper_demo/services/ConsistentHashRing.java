@@ -0,0 +1,55 @@
+package skipper_demo.services;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import lombok.NonNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+// Maps keys to nodes using consistent hashing. Every node is placed on the ring several times (virtual nodes) so
+// keys spread evenly, and adding or removing a node only moves the keys adjacent to its points on the ring.
+public class ConsistentHashRing<N> {
+  public static final int DEFAULT_VIRTUAL_NODES = 128;
+  private static final HashFunction HASH = Hashing.murmur3_128();
+
+  private final NavigableMap<Long, N> ring = new TreeMap<>();
+  private final List<N> nodes;
+
+  public ConsistentHashRing(@NonNull Map<String, N> nodesById) {
+    this(nodesById, DEFAULT_VIRTUAL_NODES);
+  }
+
+  public ConsistentHashRing(@NonNull Map<String, N> nodesById, int virtualNodes) {
+    if (nodesById.isEmpty()) {
+      throw new IllegalArgumentException("at least one node is required");
+    }
+    if (virtualNodes <= 0) {
+      throw new IllegalArgumentException("virtualNodes must be greater than zero");
+    }
+    for (Map.Entry<String, N> entry : nodesById.entrySet()) {
+      for (int i = 0; i < virtualNodes; i++) {
+        ring.put(hash(entry.getKey() + "#" + i), entry.getValue());
+      }
+    }
+    this.nodes = Collections.unmodifiableList(new ArrayList<>(nodesById.values()));
+  }
+
+  public N nodeFor(@NonNull String key) {
+    Map.Entry<Long, N> entry = ring.ceilingEntry(hash(key));
+    return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+  }
+
+  public List<N> getNodes() {
+    return nodes;
+  }
+
+  private static long hash(String key) {
+    return HASH.hashString(key, StandardCharsets.UTF_8).asLong();
+  }
+}
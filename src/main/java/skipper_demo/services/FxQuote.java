@@ -0,0 +1,31 @@
+package skipper_demo.services;
+
+import lombok.NonNull;
+import lombok.Value;
+
+// The rates to use for a single transfer: from the sender's currency to the receiver's, and from the sender's
+// currency to the system account's (for the fee). Quotes are taken through an operation, so they are recorded in the
+// workflow history and a replay always sees the same rates, along with the version of the rate table they came from.
+@Value
+public class FxQuote {
+  @NonNull String fromCurrency;
+  @NonNull String toCurrency;
+  @NonNull String feeCurrency;
+  long rate;
+  long feeRate;
+  long version;
+
+  public int convert(int amount) {
+    return scale(amount, rate);
+  }
+
+  public int convertFee(int fee) {
+    return scale(fee, feeRate);
+  }
+
+  // Throws `ArithmeticException` if the converted amount doesn't fit in an int.
+  private static int scale(int amount, long rate) {
+    return Math.toIntExact(
+        Math.addExact(Math.multiplyExact(amount, rate), FxRateTable.RATE_SCALE / 2) / FxRateTable.RATE_SCALE);
+  }
+}
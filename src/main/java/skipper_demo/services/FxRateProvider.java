@@ -0,0 +1,11 @@
+package skipper_demo.services;
+
+import java.util.Map;
+
+// Source of truth for exchange rates (e.g. a market data vendor). It is only ever called from the background refresh
+// of `FxRateTable`, never while processing a transfer.
+public interface FxRateProvider {
+  // Returns the value of one unit of every supported currency in units of `FxRateTable.BASE_CURRENCY`, scaled by
+  // `FxRateTable.RATE_SCALE`.
+  Map<String, Long> fetchRates();
+}
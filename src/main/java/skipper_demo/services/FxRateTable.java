@@ -0,0 +1,107 @@
+package skipper_demo.services;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import lombok.NonNull;
+import lombok.Value;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// In-memory, versioned copy of the exchange rates.
+//
+// Lookups only read the current snapshot (a single volatile read), so quoting a transfer never calls the provider.
+// The provider is polled in the background and every time the rates change a new snapshot with a higher version is
+// swapped in.
+@Singleton
+public class FxRateTable {
+  public static final String BASE_CURRENCY = "USD";
+  // Rates are fixed-point numbers with 6 decimals, so that conversions are exact and deterministic.
+  public static final long RATE_SCALE = 1_000_000L;
+
+  private final FxRateProvider provider;
+  private volatile Snapshot snapshot = new Snapshot(0, ImmutableMap.of(BASE_CURRENCY, RATE_SCALE), Instant.EPOCH);
+
+  @Inject
+  public FxRateTable(@NonNull FxRateProvider provider) {
+    this.provider = provider;
+    refresh();
+  }
+
+  public void start(@NonNull ScheduledExecutorService executor, long intervalSeconds) {
+    executor.scheduleWithFixedDelay(
+        () -> {
+          try {
+            refresh();
+          } catch (RuntimeException e) {
+            // We keep serving the last known rates.
+            System.out.printf("\n\n>> FX rates refresh failed: %s\n\n", e.getMessage());
+          }
+        },
+        intervalSeconds,
+        intervalSeconds,
+        TimeUnit.SECONDS);
+  }
+
+  public synchronized void refresh() {
+    Map<String, Long> rates = provider.fetchRates();
+    for (Map.Entry<String, Long> rate : rates.entrySet()) {
+      if (rate.getValue() == null || rate.getValue() <= 0) {
+        throw new IllegalStateException(String.format("invalid rate for %s", rate.getKey()));
+      }
+    }
+    if (!rates.equals(snapshot.getRates())) {
+      snapshot = new Snapshot(snapshot.getVersion() + 1, ImmutableMap.copyOf(rates), Instant.now());
+    }
+  }
+
+  public Snapshot getSnapshot() {
+    return snapshot;
+  }
+
+  public boolean isSupported(@NonNull String currency) {
+    return snapshot.getRates().containsKey(currency);
+  }
+
+  public FxQuote quote(
+      @NonNull String fromCurrency, @NonNull String toCurrency, @NonNull String feeCurrency) {
+    Snapshot current = snapshot;
+    return new FxQuote(
+        fromCurrency,
+        toCurrency,
+        feeCurrency,
+        current.rate(fromCurrency, toCurrency),
+        current.rate(fromCurrency, feeCurrency),
+        current.getVersion());
+  }
+
+  @Value
+  public static class Snapshot {
+    long version;
+    Map<String, Long> rates;
+    Instant refreshedAt;
+
+    long rate(String fromCurrency, String toCurrency) {
+      if (fromCurrency.equals(toCurrency)) {
+        return RATE_SCALE;
+      }
+      Long from = rates.get(fromCurrency);
+      Long to = rates.get(toCurrency);
+      if (from == null || to == null) {
+        throw new LedgerError(
+            String.format("unsupported currency conversion %s -> %s", fromCurrency, toCurrency));
+      }
+      // Cross rates go through BigDecimal: with a double the result is off once it doesn't fit in 53 bits, and
+      // `from * RATE_SCALE` overflows a long for large rates.
+      return BigDecimal.valueOf(from)
+          .multiply(BigDecimal.valueOf(RATE_SCALE))
+          .divide(BigDecimal.valueOf(to), 0, RoundingMode.HALF_UP)
+          .longValueExact();
+    }
+  }
+}
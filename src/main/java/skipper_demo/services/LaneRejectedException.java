@@ -0,0 +1,16 @@
+package skipper_demo.services;
+
+// Thrown when a priority lane is at capacity. It is unchecked, so operations rejected this way are considered
+// transient by skipper and retried later.
+public class LaneRejectedException extends RuntimeException {
+  private final PriorityLanes.Lane lane;
+
+  public LaneRejectedException(PriorityLanes.Lane lane) {
+    super(String.format("lane %s is at capacity", lane));
+    this.lane = lane;
+  }
+
+  public PriorityLanes.Lane getLane() {
+    return lane;
+  }
+}
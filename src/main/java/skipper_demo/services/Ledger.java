@@ -1,22 +1,65 @@
 package skipper_demo.services;
 
-import com.google.inject.Singleton;
-import lombok.Getter;
 import lombok.NonNull;
 import lombok.Value;
 import skipper_demo.Utils;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
-@Singleton
+// A single ledger node. When running sharded (see `ShardedLedger`) every shard owns one of these, so all the
+// mutations below only need to be serialized per shard rather than globally.
 public class Ledger {
-  @Getter private final Map<String, Integer> balances = new HashMap<>();
+  public static final String DEFAULT_CURRENCY = "USD";
+  // Journal entries copied per lock acquisition when snapshotting an account.
+  static final int SNAPSHOT_CHUNK_SIZE = 1_000;
+
+  private final Map<String, Integer> balances = new HashMap<>();
+  // Balances are kept in units of the account's currency.
+  private final Map<String, String> currencies = new ConcurrentHashMap<>();
   private final Map<String, Transaction> transactions = new LinkedHashMap<>();
+  private final Map<String, Integer> openingBalances = new HashMap<>();
+  // Every posting applied to an account, in order. This is what the balances are reconciled against.
+  private final Map<String, List<String>> journal = new HashMap<>();
+  // Read without holding the lock, so that the reconciliation can skip unchanged accounts without blocking writers.
+  private final Map<String, Integer> journalSizes = new ConcurrentHashMap<>();
+  // The demo ledger is slow and fails at random, to show how workflows cope with it.
+  private final boolean simulateFaults;
+
+  public Ledger(@NonNull Map<String, Integer> openingBalances) {
+    this(openingBalances, true);
+  }
+
+  Ledger(@NonNull Map<String, Integer> openingBalances, boolean simulateFaults) {
+    this.simulateFaults = simulateFaults;
+    for (Map.Entry<String, Integer> entry : openingBalances.entrySet()) {
+      openAccount(entry.getKey(), entry.getValue());
+    }
+  }
 
-  public Ledger() {
-    balances.put("system", 10000);
+  public void openAccount(@NonNull String userId, int openingBalance) {
+    openAccount(userId, DEFAULT_CURRENCY, openingBalance);
+  }
+
+  // Opening an account that already exists is a no-op, as long as it is in the same currency.
+  public synchronized void openAccount(
+      @NonNull String userId, @NonNull String currency, int openingBalance) {
+    if (balances.containsKey(userId) && !currencies.get(userId).equals(currency)) {
+      throw new LedgerError(
+          String.format("account %s already exists in %s", userId, currencies.get(userId)));
+    }
+    if (!balances.containsKey(userId)) {
+      balances.put(userId, openingBalance);
+      currencies.put(userId, currency);
+      openingBalances.put(userId, openingBalance);
+      journalSizes.put(userId, 0);
+    }
   }
 
   public String deposit(
@@ -24,17 +67,17 @@ public class Ledger {
       @NonNull Integer amount,
       @NonNull String concept,
       @NonNull String idempotencyToken) {
-    skipper_demo.Utils.randomSleep();
-    skipper_demo.Utils.randomFail();
-    if (transactions.containsKey(idempotencyToken)) {
+    simulateFaults();
+    synchronized (this) {
+      if (transactions.containsKey(idempotencyToken)) {
+        return idempotencyToken;
+      }
+      openAccount(userId, 0);
+      balances.put(userId, balances.get(userId) + amount);
+      transactions.put(idempotencyToken, new Transaction(userId, "deposit", amount));
+      appendToJournal(userId, idempotencyToken);
       return idempotencyToken;
     }
-    if (!balances.containsKey(userId)) {
-      balances.put(userId, 0);
-    }
-    balances.put(userId, balances.get(userId) + amount);
-    transactions.put(idempotencyToken, new Transaction(userId, "deposit", amount));
-    return idempotencyToken;
   }
 
   public String withdraw(
@@ -42,27 +85,106 @@ public class Ledger {
       @NonNull Integer amount,
       @NonNull String concept,
       @NonNull String idempotencyToken) {
-    skipper_demo.Utils.randomSleep();
-    Utils.randomFail();
-    if (!balances.containsKey(userId)) {
-      balances.put(userId, 0);
-    }
-    if (balances.get(userId) < amount) {
-      throw new LedgerError("not enough balance");
+    simulateFaults();
+    synchronized (this) {
+      openAccount(userId, 0);
+      if (balances.get(userId) < amount) {
+        throw new LedgerError("not enough balance");
+      }
+      balances.put(userId, balances.get(userId) - amount);
+      transactions.put(idempotencyToken, new Transaction(userId, "withdraw", amount));
+      appendToJournal(userId, idempotencyToken);
+      return idempotencyToken;
     }
-    balances.put(userId, balances.get(userId) - amount);
-    transactions.put(idempotencyToken, new Transaction(userId, "withdraw", amount));
-    return idempotencyToken;
   }
 
-  public Transaction getTransaction(@NonNull String id) {
+  public synchronized Transaction getTransaction(@NonNull String id) {
     return transactions.get(id);
   }
 
+  public synchronized Map<String, Integer> getBalances() {
+    return new HashMap<>(balances);
+  }
+
+  // A live view of the accounts, safe to iterate while the ledger is being written.
+  public Set<String> getAccounts() {
+    return Collections.unmodifiableSet(journalSizes.keySet());
+  }
+
+  public String getCurrency(@NonNull String userId) {
+    return currencies.getOrDefault(userId, DEFAULT_CURRENCY);
+  }
+
+  public int getJournalSize(@NonNull String userId) {
+    return journalSizes.getOrDefault(userId, 0);
+  }
+
+  // Returns the current balance of the account along with the journal entries from `fromEntry` onwards.
+  //
+  // The balance and the journal size are read together under the lock. The journal is append-only, so its first
+  // `journalSize` entries are exactly the postings that balance accounts for, and they can be copied afterwards. We
+  // copy them in chunks, releasing the lock in between, so a long journal (e.g. the system account on a full run)
+  // doesn't block the writers of the shard while it is copied.
+  public AccountSnapshot snapshot(@NonNull String userId, int fromEntry) {
+    int balance;
+    int openingBalance;
+    int journalSize;
+    synchronized (this) {
+      balance = balances.getOrDefault(userId, 0);
+      openingBalance = openingBalances.getOrDefault(userId, 0);
+      journalSize = journal.getOrDefault(userId, Collections.emptyList()).size();
+    }
+    List<JournalEntry> newEntries = new ArrayList<>(Math.max(0, journalSize - fromEntry));
+    for (int start = fromEntry; start < journalSize; start += SNAPSHOT_CHUNK_SIZE) {
+      copyJournal(userId, start, Math.min(journalSize, start + SNAPSHOT_CHUNK_SIZE), newEntries);
+    }
+    return new AccountSnapshot(userId, balance, openingBalance, journalSize, newEntries);
+  }
+
+  private synchronized void copyJournal(String userId, int from, int to, List<JournalEntry> into) {
+    List<String> entries = journal.get(userId);
+    for (int i = from; i < to; i++) {
+      into.add(new JournalEntry(entries.get(i), transactions.get(entries.get(i))));
+    }
+  }
+
+  private void simulateFaults() {
+    if (simulateFaults) {
+      Utils.randomSleep();
+      Utils.randomFail();
+    }
+  }
+
+  private void appendToJournal(String userId, String idempotencyToken) {
+    List<String> entries = journal.computeIfAbsent(userId, id -> new ArrayList<>());
+    entries.add(idempotencyToken);
+    journalSizes.put(userId, entries.size());
+  }
+
   @Value
   public static class Transaction {
     @NonNull String userId;
     @NonNull String operation;
     int amount;
+
+    public int getSignedAmount() {
+      return "withdraw".equals(operation) ? -amount : amount;
+    }
+  }
+
+  @Value
+  public static class JournalEntry {
+    String transactionId;
+    // Null if the journal points to a transaction that doesn't exist.
+    Transaction transaction;
+  }
+
+  @Value
+  public static class AccountSnapshot {
+    String userId;
+    int balance;
+    int openingBalance;
+    int journalSize;
+    List<JournalEntry> newEntries;
   }
 }
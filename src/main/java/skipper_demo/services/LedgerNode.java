@@ -0,0 +1,38 @@
+package skipper_demo.services;
+
+import lombok.NonNull;
+
+import java.util.Map;
+import java.util.Set;
+
+// A node owning one partition of the accounts. `ShardedLedger` only talks to nodes through this interface so that the
+// transport between the router and the shard (in-process, RPC, etc) can be swapped without touching the operations.
+public interface LedgerNode {
+  String getId();
+
+  void openAccount(@NonNull String userId, @NonNull String currency, int openingBalance);
+
+  String getCurrency(@NonNull String userId);
+
+  String deposit(
+      @NonNull String userId,
+      @NonNull Integer amount,
+      @NonNull String concept,
+      @NonNull String idempotencyToken);
+
+  String withdraw(
+      @NonNull String userId,
+      @NonNull Integer amount,
+      @NonNull String concept,
+      @NonNull String idempotencyToken);
+
+  Ledger.Transaction getTransaction(@NonNull String id);
+
+  Map<String, Integer> getBalances();
+
+  Set<String> getAccounts();
+
+  int getJournalSize(@NonNull String userId);
+
+  Ledger.AccountSnapshot snapshot(@NonNull String userId, int fromEntry);
+}
@@ -0,0 +1,271 @@
+package skipper_demo.services;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import lombok.NonNull;
+import lombok.Value;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Verifies that every account balance agrees with the postings in its journal, and that every completed transfer
+// made the postings it reported.
+//
+// Accounts are checked in parallel (fork/join over ranges of accounts) and incrementally: for every account we keep a
+// checkpoint with the number of journal entries already verified and their sum, so the next run only needs to look
+// at the accounts that have new postings, and only at those new postings. Accounts are snapshotted one at a time,
+// which means writers on a shard are only blocked while the new entries of a single account are being copied.
+@Singleton
+public class LedgerReconciler {
+  private static final int ACCOUNTS_PER_TASK = 256;
+  private static final int MAX_PENDING_TRANSFERS = 100_000;
+
+  private final ShardedLedger ledger;
+  private final ForkJoinPool pool;
+  private final ConcurrentMap<String, Checkpoint> checkpoints = new ConcurrentHashMap<>();
+  // Completed transfers whose postings haven't been verified yet, indexed by workflow instance id. Like the accounts,
+  // transfers that don't match are kept, so they are reported again on every run.
+  private final Cache<String, Map<String, Ledger.Transaction>> pendingTransfers =
+      CacheBuilder.newBuilder().maximumSize(MAX_PENDING_TRANSFERS).build();
+  private final AtomicBoolean running = new AtomicBoolean(false);
+  private volatile ReconciliationReport lastReport = null;
+
+  @Inject
+  public LedgerReconciler(@NonNull ShardedLedger ledger) {
+    // We leave half of the cores to the live traffic.
+    this(ledger, new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2)));
+  }
+
+  public LedgerReconciler(@NonNull ShardedLedger ledger, @NonNull ForkJoinPool pool) {
+    this.ledger = ledger;
+    this.pool = pool;
+  }
+
+  // Queues a completed transfer so the next run checks that the ledger has every one of its postings.
+  public void expectTransfer(@NonNull String workflowId, @NonNull Map<String, Ledger.Transaction> postings) {
+    if (!postings.isEmpty()) {
+      pendingTransfers.put(workflowId, postings);
+    }
+  }
+
+  // Runs a reconciliation. A full run discards all the checkpoints and verifies every journal from the beginning.
+  public ReconciliationReport reconcile(boolean full) {
+    if (!running.compareAndSet(false, true)) {
+      throw new IllegalStateException("a reconciliation is already running");
+    }
+    try {
+      Instant startedAt = Instant.now();
+      if (full) {
+        checkpoints.clear();
+      }
+      List<AccountRef> accounts = new ArrayList<>();
+      for (LedgerNode node : ledger.getNodes()) {
+        for (String account : node.getAccounts()) {
+          accounts.add(new AccountRef(node, account));
+        }
+      }
+      RangeResult result = pool.invoke(new AccountRangeTask(accounts, 0, accounts.size()));
+      int transfersChecked = 0;
+      List<TransferDiscrepancy> transferDiscrepancies = new ArrayList<>();
+      for (Map.Entry<String, Map<String, Ledger.Transaction>> transfer :
+          pendingTransfers.asMap().entrySet()) {
+        transfersChecked++;
+        List<TransferDiscrepancy> found = reconcileTransfer(transfer.getKey(), transfer.getValue());
+        if (found.isEmpty()) {
+          pendingTransfers.invalidate(transfer.getKey());
+        }
+        transferDiscrepancies.addAll(found);
+      }
+      ReconciliationReport report =
+          new ReconciliationReport(
+              startedAt,
+              Duration.between(startedAt, Instant.now()).toMillis(),
+              full,
+              result.checked,
+              result.skipped,
+              Collections.unmodifiableList(result.discrepancies),
+              transfersChecked,
+              Collections.unmodifiableList(transferDiscrepancies));
+      lastReport = report;
+      return report;
+    } finally {
+      running.set(false);
+    }
+  }
+
+  public ReconciliationReport getLastReport() {
+    return lastReport;
+  }
+
+  private RangeResult reconcileAccount(AccountRef ref) {
+    String key = ref.node.getId() + "/" + ref.account;
+    Checkpoint checkpoint = checkpoints.getOrDefault(key, Checkpoint.EMPTY);
+    RangeResult result = new RangeResult();
+    if (ref.node.getJournalSize(ref.account) == checkpoint.getEntries()) {
+      result.skipped++;
+      return result;
+    }
+    result.checked++;
+    Ledger.AccountSnapshot snapshot = ref.node.snapshot(ref.account, checkpoint.getEntries());
+    long sum = checkpoint.getSum();
+    boolean consistent = true;
+    for (Ledger.JournalEntry entry : snapshot.getNewEntries()) {
+      Ledger.Transaction transaction = entry.getTransaction();
+      if (transaction == null) {
+        consistent = false;
+        result.discrepancies.add(
+            discrepancy(ref, snapshot, String.format("missing transaction %s", entry.getTransactionId())));
+      } else if (!transaction.getUserId().equals(ref.account)) {
+        consistent = false;
+        result.discrepancies.add(
+            discrepancy(
+                ref,
+                snapshot,
+                String.format(
+                    "transaction %s belongs to %s", entry.getTransactionId(), transaction.getUserId())));
+      } else {
+        sum += transaction.getSignedAmount();
+      }
+    }
+    if (snapshot.getOpeningBalance() + sum != snapshot.getBalance()) {
+      consistent = false;
+      result.discrepancies.add(
+          discrepancy(
+              ref,
+              snapshot,
+              String.format(
+                  "balance is %d but the journal adds up to %d",
+                  snapshot.getBalance(), snapshot.getOpeningBalance() + sum)));
+    }
+    // Inconsistent accounts keep their previous checkpoint, so they are reported again until they are fixed.
+    if (consistent) {
+      checkpoints.put(key, new Checkpoint(snapshot.getJournalSize(), sum));
+    }
+    return result;
+  }
+
+  // Every posting is looked up on the node that owns its account, so a posting that landed on the wrong shard is
+  // reported as missing.
+  private List<TransferDiscrepancy> reconcileTransfer(
+      String workflowId, Map<String, Ledger.Transaction> postings) {
+    List<TransferDiscrepancy> discrepancies = new ArrayList<>();
+    for (Map.Entry<String, Ledger.Transaction> posting : postings.entrySet()) {
+      Ledger.Transaction expected = posting.getValue();
+      Ledger.Transaction actual =
+          ledger.nodeFor(expected.getUserId()).getTransaction(posting.getKey());
+      if (actual == null) {
+        discrepancies.add(
+            new TransferDiscrepancy(
+                workflowId, posting.getKey(), String.format("missing posting %s", expected)));
+      } else if (!actual.equals(expected)) {
+        discrepancies.add(
+            new TransferDiscrepancy(
+                workflowId,
+                posting.getKey(),
+                String.format("expected posting %s but the ledger has %s", expected, actual)));
+      }
+    }
+    return discrepancies;
+  }
+
+  private static Discrepancy discrepancy(AccountRef ref, Ledger.AccountSnapshot snapshot, String reason) {
+    return new Discrepancy(ref.node.getId(), ref.account, snapshot.getBalance(), reason);
+  }
+
+  private class AccountRangeTask extends RecursiveTask<RangeResult> {
+    private final List<AccountRef> accounts;
+    private final int from;
+    private final int to;
+
+    AccountRangeTask(List<AccountRef> accounts, int from, int to) {
+      this.accounts = accounts;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected RangeResult compute() {
+      if (to - from <= ACCOUNTS_PER_TASK) {
+        RangeResult result = new RangeResult();
+        for (int i = from; i < to; i++) {
+          result.merge(reconcileAccount(accounts.get(i)));
+        }
+        return result;
+      }
+      int middle = (from + to) >>> 1;
+      AccountRangeTask left = new AccountRangeTask(accounts, from, middle);
+      left.fork();
+      RangeResult result = new AccountRangeTask(accounts, middle, to).compute();
+      result.merge(left.join());
+      return result;
+    }
+  }
+
+  private static class AccountRef {
+    final LedgerNode node;
+    final String account;
+
+    AccountRef(LedgerNode node, String account) {
+      this.node = node;
+      this.account = account;
+    }
+  }
+
+  private static class RangeResult {
+    int checked = 0;
+    int skipped = 0;
+    final List<Discrepancy> discrepancies = new ArrayList<>();
+
+    void merge(RangeResult other) {
+      checked += other.checked;
+      skipped += other.skipped;
+      discrepancies.addAll(other.discrepancies);
+    }
+  }
+
+  @Value
+  private static class Checkpoint {
+    static final Checkpoint EMPTY = new Checkpoint(0, 0);
+
+    int entries;
+    long sum;
+  }
+
+  @Value
+  public static class Discrepancy {
+    String nodeId;
+    String account;
+    int balance;
+    String reason;
+  }
+
+  @Value
+  public static class TransferDiscrepancy {
+    String workflowId;
+    String transactionId;
+    String reason;
+  }
+
+  @Value
+  public static class ReconciliationReport {
+    Instant startedAt;
+    long durationMillis;
+    boolean full;
+    int accountsChecked;
+    int accountsSkipped;
+    List<Discrepancy> discrepancies;
+    int transfersChecked;
+    List<TransferDiscrepancy> transferDiscrepancies;
+  }
+}
@@ -0,0 +1,71 @@
+package skipper_demo.services;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.util.Map;
+import java.util.Set;
+
+// In-process transport: the shard lives in the same JVM and calls are plain method calls on its `Ledger`.
+public class LocalLedgerNode implements LedgerNode {
+  @Getter private final String id;
+  private final Ledger ledger;
+
+  public LocalLedgerNode(@NonNull String id, @NonNull Ledger ledger) {
+    this.id = id;
+    this.ledger = ledger;
+  }
+
+  @Override
+  public void openAccount(@NonNull String userId, @NonNull String currency, int openingBalance) {
+    ledger.openAccount(userId, currency, openingBalance);
+  }
+
+  @Override
+  public String getCurrency(@NonNull String userId) {
+    return ledger.getCurrency(userId);
+  }
+
+  @Override
+  public String deposit(
+      @NonNull String userId,
+      @NonNull Integer amount,
+      @NonNull String concept,
+      @NonNull String idempotencyToken) {
+    return ledger.deposit(userId, amount, concept, idempotencyToken);
+  }
+
+  @Override
+  public String withdraw(
+      @NonNull String userId,
+      @NonNull Integer amount,
+      @NonNull String concept,
+      @NonNull String idempotencyToken) {
+    return ledger.withdraw(userId, amount, concept, idempotencyToken);
+  }
+
+  @Override
+  public Ledger.Transaction getTransaction(@NonNull String id) {
+    return ledger.getTransaction(id);
+  }
+
+  @Override
+  public Map<String, Integer> getBalances() {
+    return ledger.getBalances();
+  }
+
+  @Override
+  public Set<String> getAccounts() {
+    return ledger.getAccounts();
+  }
+
+  @Override
+  public int getJournalSize(@NonNull String userId) {
+    return ledger.getJournalSize(userId);
+  }
+
+  @Override
+  public Ledger.AccountSnapshot snapshot(@NonNull String userId, int fromEntry) {
+    return ledger.snapshot(userId, fromEntry);
+  }
+}
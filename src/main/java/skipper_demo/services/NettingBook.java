@@ -0,0 +1,188 @@
+package skipper_demo.services;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.inject.Singleton;
+import lombok.NonNull;
+import lombok.Value;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Accumulates small transfers into per-pair net positions until they are settled.
+//
+// Transfers between the same two accounts cancel each other out, so instead of posting every single one of them to
+// the ledger we only post the net amount each account owes or is owed (plus the accumulated fees) once per batch.
+@Singleton
+public class NettingBook {
+  private static final int MAX_REMEMBERED_BATCHES = 1000;
+  private static final int MAX_REMEMBERED_TRANSFERS = 100_000;
+
+  private final Map<String, PendingTransfer> pendingTransfers = new HashMap<>();
+  private final Map<String, PairPosition> positions = new LinkedHashMap<>();
+  // Drained batches are remembered so that draining is idempotent (operations can be retried).
+  private final Cache<String, SettlementBatch> drainedBatches =
+      CacheBuilder.newBuilder().maximumSize(MAX_REMEMBERED_BATCHES).build();
+  // The batch every recently drained transfer went into. A retried `enqueue` of one of them must not add it again,
+  // or it would be posted twice.
+  private final Cache<String, String> drainedTransfers =
+      CacheBuilder.newBuilder().maximumSize(MAX_REMEMBERED_TRANSFERS).build();
+
+  // Adds a transfer to the book. Returns false (and does nothing) if the transfer was already drained into a batch.
+  public synchronized boolean enqueue(
+      @NonNull String transferId, @NonNull String from, @NonNull String to, int amount, int fee) {
+    if (from.equals(to)) {
+      throw new IllegalArgumentException("cannot net a transfer to the same account");
+    }
+    if (drainedTransfers.getIfPresent(transferId) != null) {
+      return false;
+    }
+    if (pendingTransfers.containsKey(transferId)) {
+      return true;
+    }
+    PendingTransfer transfer = new PendingTransfer(transferId, from, to, amount, fee);
+    pendingTransfers.put(transferId, transfer);
+    positions.computeIfAbsent(pairKey(from, to), key -> new PairPosition(from, to)).add(transfer);
+    return true;
+  }
+
+  // Removes a transfer that hasn't been drained yet.
+  public synchronized CancelOutcome cancel(@NonNull String transferId) {
+    PendingTransfer transfer = pendingTransfers.remove(transferId);
+    if (transfer == null) {
+      return drainedTransfers.getIfPresent(transferId) != null
+          ? CancelOutcome.ALREADY_DRAINED
+          : CancelOutcome.UNKNOWN;
+    }
+    String key = pairKey(transfer.getFrom(), transfer.getTo());
+    PairPosition position = positions.get(key);
+    position.remove(transfer);
+    if (position.isEmpty()) {
+      positions.remove(key);
+    }
+    return CancelOutcome.CANCELLED;
+  }
+
+  public synchronized SettlementBatch drain(@NonNull String batchId) {
+    SettlementBatch drained = drainedBatches.getIfPresent(batchId);
+    if (drained != null) {
+      return drained;
+    }
+    List<NetPosition> netPositions = new ArrayList<>(positions.size());
+    for (PairPosition position : positions.values()) {
+      netPositions.add(position.toNetPosition());
+    }
+    positions.clear();
+    for (String transferId : pendingTransfers.keySet()) {
+      drainedTransfers.put(transferId, batchId);
+    }
+    pendingTransfers.clear();
+    SettlementBatch batch = new SettlementBatch(batchId, netPositions);
+    drainedBatches.put(batchId, batch);
+    return batch;
+  }
+
+  // Returns the batch with the given id if it was drained recently, or null.
+  public SettlementBatch getDrainedBatch(@NonNull String batchId) {
+    return drainedBatches.getIfPresent(batchId);
+  }
+
+  public synchronized int getPendingTransfers() {
+    return pendingTransfers.size();
+  }
+
+  private static String pairKey(String from, String to) {
+    return from.compareTo(to) < 0 ? from + "|" + to : to + "|" + from;
+  }
+
+  public enum CancelOutcome {
+    // The transfer was pending and it's no longer part of the book.
+    CANCELLED,
+    // The transfer is part of a settlement batch already.
+    ALREADY_DRAINED,
+    // The book doesn't know about the transfer, e.g. because it was lost in a restart (the book lives in memory).
+    UNKNOWN
+  }
+
+  @Value
+  public static class PendingTransfer {
+    String transferId;
+    String from;
+    String to;
+    int amount;
+    int fee;
+  }
+
+  // The net result of all the transfers between two accounts within a batch. Deltas are what each account receives
+  // (negative if it pays), so `firstDelta + secondDelta + fees == 0`.
+  @Value
+  public static class NetPosition {
+    String firstAccount;
+    String secondAccount;
+    int firstDelta;
+    int secondDelta;
+    int fees;
+    List<String> transferIds;
+  }
+
+  @Value
+  public static class SettlementBatch {
+    String batchId;
+    List<NetPosition> positions;
+  }
+
+  private static class PairPosition {
+    private final String firstAccount;
+    private final String secondAccount;
+    private final Map<String, PendingTransfer> transfers = new LinkedHashMap<>();
+    private int firstDelta = 0;
+    private int secondDelta = 0;
+    private int fees = 0;
+
+    PairPosition(String firstAccount, String secondAccount) {
+      this.firstAccount = firstAccount;
+      this.secondAccount = secondAccount;
+    }
+
+    void add(PendingTransfer transfer) {
+      transfers.put(transfer.getTransferId(), transfer);
+      apply(transfer, 1);
+    }
+
+    void remove(PendingTransfer transfer) {
+      transfers.remove(transfer.getTransferId());
+      apply(transfer, -1);
+    }
+
+    boolean isEmpty() {
+      return transfers.isEmpty();
+    }
+
+    NetPosition toNetPosition() {
+      return new NetPosition(
+          firstAccount,
+          secondAccount,
+          firstDelta,
+          secondDelta,
+          fees,
+          Collections.unmodifiableList(new ArrayList<>(transfers.keySet())));
+    }
+
+    private void apply(PendingTransfer transfer, int sign) {
+      int paid = sign * (transfer.getAmount() + transfer.getFee());
+      int received = sign * transfer.getAmount();
+      if (transfer.getFrom().equals(firstAccount)) {
+        firstDelta -= paid;
+        secondDelta += received;
+      } else {
+        secondDelta -= paid;
+        firstDelta += received;
+      }
+      fees += sign * transfer.getFee();
+    }
+  }
+}
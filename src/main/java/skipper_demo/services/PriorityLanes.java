@@ -0,0 +1,112 @@
+package skipper_demo.services;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.NonNull;
+import lombok.Value;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Splits the capacity of the service into independent lanes, so that a surge of slow work (approvals, vending
+// sessions) can't make small transfers wait behind it.
+//
+// Every lane has its own bounded resources, used in two places:
+// - `submit` runs work on the lane's executor, e.g. the REST requests that create workflow instances or send signals.
+// - `call` runs an operation within the lane's concurrency limit, so that one kind of operation can't take all of the
+//   engine's operation threads.
+// When a lane is full, work is rejected right away with `LaneRejectedException` instead of queueing up without limit.
+// Operations in particular never wait for a slot: a waiting operation would still hold an engine thread, so it is
+// rejected and the workflow's retry strategy calls it again later, without holding anything in the meantime.
+public class PriorityLanes {
+  public enum Lane {
+    // Transfers below the approval threshold.
+    INSTANT,
+    // Transfers that require approval.
+    APPROVAL,
+    VENDING
+  }
+
+  private final Map<Lane, LaneResources> lanes = new EnumMap<>(Lane.class);
+  private final int instantAmountLimit;
+
+  public PriorityLanes(@NonNull Map<Lane, Limits> limits, int instantAmountLimit) {
+    for (Lane lane : Lane.values()) {
+      Limits laneLimits = limits.get(lane);
+      if (laneLimits == null) {
+        throw new IllegalArgumentException(String.format("missing limits for lane %s", lane));
+      }
+      lanes.put(lane, new LaneResources(lane, laneLimits));
+    }
+    this.instantAmountLimit = instantAmountLimit;
+  }
+
+  // Transfers that are large enough to require an approval go to the approval lane.
+  public Lane laneForTransfer(int amount) {
+    return amount < instantAmountLimit ? Lane.INSTANT : Lane.APPROVAL;
+  }
+
+  public <T> CompletableFuture<T> submit(@NonNull Lane lane, @NonNull Supplier<T> work) {
+    try {
+      return CompletableFuture.supplyAsync(work, lanes.get(lane).executor);
+    } catch (RejectedExecutionException e) {
+      throw new LaneRejectedException(lane);
+    }
+  }
+
+  public <T> T call(@NonNull Lane lane, @NonNull Supplier<T> operation) {
+    LaneResources resources = lanes.get(lane);
+    if (!resources.permits.tryAcquire()) {
+      throw new LaneRejectedException(lane);
+    }
+    try {
+      return operation.get();
+    } finally {
+      resources.permits.release();
+    }
+  }
+
+  public void shutdown() {
+    for (LaneResources resources : lanes.values()) {
+      resources.executor.shutdown();
+    }
+  }
+
+  @Value
+  public static class Limits {
+    // How many tasks of the lane can run at the same time.
+    int maxConcurrency;
+    // How many tasks submitted to the lane can be queued before new ones are rejected.
+    int queueLimit;
+  }
+
+  private static class LaneResources {
+    private final ThreadPoolExecutor executor;
+    private final Semaphore permits;
+
+    LaneResources(Lane lane, Limits limits) {
+      if (limits.getMaxConcurrency() <= 0 || limits.getQueueLimit() < 0) {
+        throw new IllegalArgumentException(String.format("invalid limits for lane %s", lane));
+      }
+      this.executor =
+          new ThreadPoolExecutor(
+              limits.getMaxConcurrency(),
+              limits.getMaxConcurrency(),
+              0,
+              TimeUnit.MILLISECONDS,
+              new ArrayBlockingQueue<>(Math.max(1, limits.getQueueLimit())),
+              new ThreadFactoryBuilder()
+                  .setDaemon(true)
+                  .setNameFormat(String.format("lane-%s-%%d", lane.name().toLowerCase()))
+                  .build(),
+              new ThreadPoolExecutor.AbortPolicy());
+      this.permits = new Semaphore(limits.getMaxConcurrency());
+    }
+  }
+}
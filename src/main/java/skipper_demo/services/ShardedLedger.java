@@ -0,0 +1,103 @@
+package skipper_demo.services;
+
+import lombok.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Routes every account to the ledger node that owns it. Each node serializes its own writes, so ledger throughput
+// grows with the number of shards.
+//
+// Note that a transfer touches the sender's and the receiver's shards in separate operations (withdraw, then deposit),
+// which is exactly how `TransferWorkflow` already models it: a transfer across shards is just a saga whose steps
+// happen to land on different nodes, and the saga compensations undo a partial transfer the same way as before.
+public class ShardedLedger {
+  public static final String SYSTEM_ACCOUNT = "system";
+  public static final int SYSTEM_OPENING_BALANCE = 10000;
+
+  private final ConsistentHashRing<LedgerNode> ring;
+
+  public ShardedLedger(@NonNull List<LedgerNode> nodes) {
+    Map<String, LedgerNode> nodesById = new LinkedHashMap<>();
+    for (LedgerNode node : nodes) {
+      if (nodesById.put(node.getId(), node) != null) {
+        throw new IllegalArgumentException(String.format("duplicate ledger node id: %s", node.getId()));
+      }
+    }
+    this.ring = new ConsistentHashRing<>(nodesById);
+  }
+
+  // Creates a ledger partitioned across `shards` in-process nodes, with the system account opened on its owner.
+  public static ShardedLedger local(int shards) {
+    if (shards <= 0) {
+      throw new IllegalArgumentException("shards must be greater than zero");
+    }
+    Map<String, LedgerNode> nodes = new LinkedHashMap<>();
+    for (int i = 0; i < shards; i++) {
+      String id = String.format("ledger-%d", i);
+      nodes.put(id, new LocalLedgerNode(id, new Ledger(new HashMap<>())));
+    }
+    ShardedLedger ledger = new ShardedLedger(new ArrayList<>(nodes.values()));
+    ledger.openAccount(SYSTEM_ACCOUNT, SYSTEM_OPENING_BALANCE);
+    return ledger;
+  }
+
+  public LedgerNode nodeFor(@NonNull String userId) {
+    return ring.nodeFor(userId);
+  }
+
+  public List<LedgerNode> getNodes() {
+    return ring.getNodes();
+  }
+
+  public void openAccount(@NonNull String userId, int openingBalance) {
+    openAccount(userId, Ledger.DEFAULT_CURRENCY, openingBalance);
+  }
+
+  public void openAccount(@NonNull String userId, @NonNull String currency, int openingBalance) {
+    nodeFor(userId).openAccount(userId, currency, openingBalance);
+  }
+
+  public String getCurrency(@NonNull String userId) {
+    return nodeFor(userId).getCurrency(userId);
+  }
+
+  public String deposit(
+      @NonNull String userId,
+      @NonNull Integer amount,
+      @NonNull String concept,
+      @NonNull String idempotencyToken) {
+    return nodeFor(userId).deposit(userId, amount, concept, idempotencyToken);
+  }
+
+  public String withdraw(
+      @NonNull String userId,
+      @NonNull Integer amount,
+      @NonNull String concept,
+      @NonNull String idempotencyToken) {
+    return nodeFor(userId).withdraw(userId, amount, concept, idempotencyToken);
+  }
+
+  // Transaction ids are not tied to an account, so we need to ask every node. This is only used by the rollbacks,
+  // which are rare compared to the regular postings.
+  public Ledger.Transaction getTransaction(@NonNull String id) {
+    for (LedgerNode node : ring.getNodes()) {
+      Ledger.Transaction transaction = node.getTransaction(id);
+      if (transaction != null) {
+        return transaction;
+      }
+    }
+    return null;
+  }
+
+  public Map<String, Integer> getBalances() {
+    Map<String, Integer> balances = new HashMap<>();
+    for (LedgerNode node : ring.getNodes()) {
+      balances.putAll(node.getBalances());
+    }
+    return balances;
+  }
+}
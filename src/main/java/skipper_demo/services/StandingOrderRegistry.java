@@ -0,0 +1,89 @@
+package skipper_demo.services;
+
+import io.github.rgamba.skipper.models.WorkflowInstance;
+import lombok.NonNull;
+import lombok.Value;
+import skipper_demo.workflows.RecurringTransferWorkflow;
+
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+// Keeps track of which workflow instance is currently running each standing order, given that a standing order
+// moves to a new instance every few ticks.
+//
+// The store is the source of truth: instance ids are deterministic per generation, so the current instance is the
+// last generation that exists. The in-memory map only remembers the last generation we saw (so lookups usually take
+// a couple of reads) and the cancellations that haven't reached a running instance yet. After a restart it starts
+// empty and the generations are found again in the store.
+public class StandingOrderRegistry {
+  private final Function<String, WorkflowInstance> store;
+  private final ConcurrentMap<String, StandingOrder> orders = new ConcurrentHashMap<>();
+
+  public StandingOrderRegistry(@NonNull Function<String, WorkflowInstance> store) {
+    this.store = store;
+  }
+
+  public void register(@NonNull String standingOrderId) {
+    orders.put(standingOrderId, new StandingOrder(standingOrderId, 0, false));
+  }
+
+  public void advance(@NonNull String standingOrderId, int generation) {
+    orders.compute(
+        standingOrderId,
+        (id, order) ->
+            order == null
+                ? new StandingOrder(id, generation, false)
+                : new StandingOrder(
+                    id, Math.max(generation, order.getGeneration()), order.isCancelled()));
+  }
+
+  // Returns the instance running the latest generation of the standing order, or empty if it doesn't exist. Store
+  // failures are rethrown, the standing order may well exist.
+  public Optional<WorkflowInstance> getCurrentInstance(@NonNull String standingOrderId) {
+    StandingOrder known = orders.get(standingOrderId);
+    // The generation we advanced to may not be created yet, in which case the search falls back to the first one.
+    Optional<WorkflowStore.Generation> latest =
+        WorkflowStore.latestGeneration(
+            generation -> find(standingOrderId, generation), known == null ? 0 : known.getGeneration());
+    if (!latest.isPresent()) {
+      return Optional.empty();
+    }
+    advance(standingOrderId, latest.get().getNumber());
+    return Optional.of(latest.get().getInstance());
+  }
+
+  // Marks the standing order as cancelled and returns its current instance, if it exists. The mark is what stops a
+  // completing instance from being continued, if the cancel signal arrives too late for it.
+  public Optional<WorkflowInstance> cancel(@NonNull String standingOrderId) {
+    Optional<WorkflowInstance> instance = getCurrentInstance(standingOrderId);
+    if (instance.isPresent()) {
+      orders.compute(
+          standingOrderId,
+          (id, order) -> new StandingOrder(id, order == null ? 0 : order.getGeneration(), true));
+    }
+    return instance;
+  }
+
+  public boolean isCancelled(@NonNull String standingOrderId) {
+    StandingOrder order = orders.get(standingOrderId);
+    return order != null && order.isCancelled();
+  }
+
+  public void remove(@NonNull String standingOrderId) {
+    orders.remove(standingOrderId);
+  }
+
+  private WorkflowInstance find(String standingOrderId, int generation) {
+    return WorkflowStore.findOrNull(store, RecurringTransferWorkflow.instanceId(standingOrderId, generation));
+  }
+
+  @Value
+  private static class StandingOrder {
+    String id;
+    // The latest generation known to exist (or about to).
+    int generation;
+    boolean cancelled;
+  }
+}
@@ -0,0 +1,32 @@
+package skipper_demo.services;
+
+import lombok.NonNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Local provider with fixed rates, used by the demo and the tests.
+public class StubFxRateProvider implements FxRateProvider {
+  private final Map<String, Long> rates;
+
+  public StubFxRateProvider() {
+    rates = new HashMap<>();
+    rates.put("USD", 1_000_000L);
+    rates.put("EUR", 1_080_000L);
+    rates.put("GBP", 1_270_000L);
+    rates.put("MXN", 58_000L);
+  }
+
+  public StubFxRateProvider(@NonNull Map<String, Long> rates) {
+    this.rates = new HashMap<>(rates);
+  }
+
+  @Override
+  public synchronized Map<String, Long> fetchRates() {
+    return new HashMap<>(rates);
+  }
+
+  public synchronized void setRate(@NonNull String currency, long rate) {
+    rates.put(currency, rate);
+  }
+}
@@ -0,0 +1,77 @@
+package skipper_demo.services;
+
+import io.github.rgamba.skipper.models.WorkflowInstance;
+import lombok.NonNull;
+import lombok.Value;
+
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+// Lookups of workflow instances in the skipper store that tell an unknown id apart from a failing store.
+//
+// The store answers an unknown id with null or with a lookup error (`NoSuchElementException` or
+// `IllegalArgumentException`). Anything else (e.g. the database being unreachable) is the store failing, and must not
+// be mistaken for the instance not existing: callers would then report a 404 for an instance that is running, or
+// think an instance was already created when it wasn't.
+public class WorkflowStore {
+  // Returns null if the instance doesn't exist. Store failures are rethrown.
+  public static WorkflowInstance findOrNull(
+      @NonNull Function<String, WorkflowInstance> store, @NonNull String id) {
+    try {
+      return store.apply(id);
+    } catch (RuntimeException e) {
+      if (isNotFound(e)) {
+        return null;
+      }
+      throw e;
+    }
+  }
+
+  public static boolean isNotFound(@NonNull RuntimeException e) {
+    return e instanceof NoSuchElementException || e instanceof IllegalArgumentException;
+  }
+
+  // Finds the latest generation of a workflow that continues as new instances, one generation after the other.
+  // `generations` looks a generation up (null if it doesn't exist) and `hint` is a generation likely to exist, falling
+  // back to generation 0 if it doesn't. From there we double the step until a generation is missing and then bisect,
+  // so it takes a logarithmic number of lookups however many generations there are.
+  public static Optional<Generation> latestGeneration(
+      @NonNull IntFunction<WorkflowInstance> generations, int hint) {
+    int generation = hint;
+    WorkflowInstance instance = generations.apply(generation);
+    if (instance == null && generation > 0) {
+      generation = 0;
+      instance = generations.apply(0);
+    }
+    if (instance == null) {
+      return Optional.empty();
+    }
+    int existing = generation;
+    int missing = generation + 1;
+    WorkflowInstance next;
+    while ((next = generations.apply(missing)) != null) {
+      existing = missing;
+      instance = next;
+      missing = generation + 2 * (existing - generation);
+    }
+    while (missing - existing > 1) {
+      int middle = (existing + missing) >>> 1;
+      next = generations.apply(middle);
+      if (next == null) {
+        missing = middle;
+      } else {
+        existing = middle;
+        instance = next;
+      }
+    }
+    return Optional.of(new Generation(existing, instance));
+  }
+
+  @Value
+  public static class Generation {
+    int number;
+    WorkflowInstance instance;
+  }
+}
@@ -0,0 +1,123 @@
+package skipper_demo.workflowHandlers;
+
+import io.github.rgamba.skipper.SkipperEngine;
+import io.github.rgamba.skipper.api.CallbackHandler;
+import io.github.rgamba.skipper.client.SkipperClient;
+import io.github.rgamba.skipper.models.WorkflowInstance;
+import lombok.NonNull;
+import skipper_demo.services.NettingBook;
+import skipper_demo.services.WorkflowStore;
+import skipper_demo.workflows.NettingSettlementWorkflow;
+import skipper_demo.workflows.TransferWorkflow;
+
+import java.util.Optional;
+
+// Delivers the result of every netted transfer once its batch is settled, and schedules the next batch.
+public class NettingSettlementCallbackHandler implements CallbackHandler {
+  private final NettingBook nettingBook;
+  private final long intervalSeconds;
+
+  public NettingSettlementCallbackHandler(@NonNull NettingBook nettingBook, long intervalSeconds) {
+    this.nettingBook = nettingBook;
+    this.intervalSeconds = intervalSeconds;
+  }
+
+  @Override
+  public void handleUpdate(
+      @NonNull WorkflowInstance workflowInstance, @NonNull SkipperEngine engine) {
+    if (workflowInstance.getStatus().isCompleted()) {
+      NettingSettlementWorkflow.SettlementResult result =
+          (NettingSettlementWorkflow.SettlementResult) workflowInstance.getResult().getValue();
+      SkipperClient client = new SkipperClient(engine);
+      for (NettingSettlementWorkflow.SettledTransfer settled : result.getSettledTransfers()) {
+        deliver(client, settled.getTransferId(), settled.getResult());
+      }
+      if (result.isStopped()) {
+        System.out.printf("\n\n>> Netting cycle stopped: %s\n\n", result.getCycleId());
+        return;
+      }
+      startNextBatch(client, result.getCycleId(), result.getGeneration() + 1, result.getIntervalSeconds());
+    } else if (workflowInstance.getStatus().isError()) {
+      System.out.printf("\n\n>> Netting settlement error: %s\n\n", workflowInstance.getStatusReason());
+      SkipperClient client = new SkipperClient(engine);
+      // The transfers drained into this batch won't get a result from the settlement, so we fail them here rather
+      // than leaving them waiting.
+      String batchId = workflowInstance.getId();
+      NettingBook.SettlementBatch batch = nettingBook.getDrainedBatch(batchId);
+      if (batch != null) {
+        TransferWorkflow.TransferResult failure =
+            new TransferWorkflow.TransferResult(
+                false,
+                String.format("settlement failed unexpectedly: %s", workflowInstance.getStatusReason()));
+        for (NettingBook.NetPosition position : batch.getPositions()) {
+          for (String transferId : position.getTransferIds()) {
+            deliver(client, transferId, failure);
+          }
+        }
+      }
+      // Netting must go on with the next batch, otherwise every new netted transfer would wait until it times out.
+      startNextBatch(
+          client,
+          NettingSettlementWorkflow.cycleIdOf(batchId),
+          NettingSettlementWorkflow.generationOf(batchId) + 1,
+          intervalSeconds);
+    }
+  }
+
+  private static void deliver(
+      SkipperClient client, String transferId, TransferWorkflow.TransferResult result) {
+    try {
+      client.sendInputSignal(transferId, "settled", result);
+    } catch (RuntimeException e) {
+      System.out.printf("\n\n>> Unable to deliver settlement of %s: %s\n\n", transferId, e.getMessage());
+    }
+  }
+
+  // Restarts the netting cycle after the app starts: batches are chained from one generation to the next, so we look
+  // for the latest one. If it is still running it will schedule the next one itself. Otherwise the chain stopped (e.g.
+  // the app went down before the callback ran), so we schedule the next batch here.
+  public static void resume(@NonNull SkipperClient client, @NonNull String cycleId, long intervalSeconds) {
+    Optional<WorkflowStore.Generation> latest =
+        WorkflowStore.latestGeneration(
+            generation ->
+                WorkflowStore.findOrNull(
+                    client::getWorkflowInstance, NettingSettlementWorkflow.instanceId(cycleId, generation)),
+            0);
+    if (!latest.isPresent()) {
+      startNextBatch(client, cycleId, 0, intervalSeconds);
+      return;
+    }
+    WorkflowInstance instance = latest.get().getInstance();
+    if (instance.getStatus().isCompleted() || instance.getStatus().isError()) {
+      startNextBatch(client, cycleId, latest.get().getNumber() + 1, intervalSeconds);
+    }
+  }
+
+  public static void startNextBatch(
+      @NonNull SkipperClient client, @NonNull String cycleId, int generation, long intervalSeconds) {
+    String instanceId = NettingSettlementWorkflow.instanceId(cycleId, generation);
+    try {
+      client.createWorkflowInstance(
+          NettingSettlementWorkflow.class,
+          instanceId,
+          NettingSettlementCallbackHandler.class,
+          cycleId,
+          generation,
+          intervalSeconds);
+    } catch (RuntimeException e) {
+      // Instance ids are deterministic, so the batch may have already been scheduled by a previous delivery of the
+      // same update. Anything else is rethrown: swallowing it would end the netting cycle for good.
+      WorkflowInstance existing;
+      try {
+        existing = WorkflowStore.findOrNull(client::getWorkflowInstance, instanceId);
+      } catch (RuntimeException lookupError) {
+        e.addSuppressed(lookupError);
+        throw e;
+      }
+      if (existing == null) {
+        throw e;
+      }
+      System.out.printf("\n\n>> Netting batch %s already scheduled\n\n", instanceId);
+    }
+  }
+}
@@ -0,0 +1,73 @@
+package skipper_demo.workflowHandlers;
+
+import io.github.rgamba.skipper.SkipperEngine;
+import io.github.rgamba.skipper.api.CallbackHandler;
+import io.github.rgamba.skipper.client.SkipperClient;
+import io.github.rgamba.skipper.models.WorkflowInstance;
+import lombok.NonNull;
+import skipper_demo.services.StandingOrderRegistry;
+import skipper_demo.services.WorkflowStore;
+import skipper_demo.workflows.RecurringTransferWorkflow;
+
+// Continues a standing order as a new workflow instance every time the current one completes its batch of ticks.
+public class RecurringTransferCallbackHandler implements CallbackHandler {
+  private final StandingOrderRegistry standingOrders;
+
+  public RecurringTransferCallbackHandler(@NonNull StandingOrderRegistry standingOrders) {
+    this.standingOrders = standingOrders;
+  }
+
+  @Override
+  public void handleUpdate(
+      @NonNull WorkflowInstance workflowInstance, @NonNull SkipperEngine engine) {
+    if (workflowInstance.getStatus().isCompleted()) {
+      RecurringTransferWorkflow.RecurringTransferResult result =
+          (RecurringTransferWorkflow.RecurringTransferResult) workflowInstance.getResult().getValue();
+      // The cancel signal might have arrived right after the instance completed, so we double check the registry.
+      if (result.isCancelled() || standingOrders.isCancelled(result.getStandingOrderId())) {
+        standingOrders.remove(result.getStandingOrderId());
+        System.out.printf("\n\n>> Standing order cancelled: %s\n\n", result.getStandingOrderId());
+        return;
+      }
+      int nextGeneration = result.getGeneration() + 1;
+      String nextInstanceId =
+          RecurringTransferWorkflow.instanceId(result.getStandingOrderId(), nextGeneration);
+      // We advance before creating the next generation, so that a cancellation from now on targets the new instance.
+      standingOrders.advance(result.getStandingOrderId(), nextGeneration);
+      SkipperClient client = new SkipperClient(engine);
+      try {
+        client.createWorkflowInstance(
+            RecurringTransferWorkflow.class,
+            nextInstanceId,
+            RecurringTransferCallbackHandler.class,
+            result.getStandingOrderId(),
+            nextGeneration,
+            result.getFrom(),
+            result.getTo(),
+            result.getAmount(),
+            result.getIntervalSeconds());
+      } catch (RuntimeException e) {
+        // The id is deterministic, so this may be a previous delivery of this same update that already created the
+        // next generation. Anything else must not be swallowed, or the standing order would silently stop.
+        WorkflowInstance existing;
+        try {
+          existing = WorkflowStore.findOrNull(client::getWorkflowInstance, nextInstanceId);
+        } catch (RuntimeException lookupError) {
+          e.addSuppressed(lookupError);
+          throw e;
+        }
+        if (existing == null) {
+          throw e;
+        }
+        System.out.printf(
+            "\n\n>> Standing order %s already continued as %s\n\n", result.getStandingOrderId(), nextInstanceId);
+      }
+      // A cancellation that arrived while we were creating the instance may have signaled the completed one instead.
+      if (standingOrders.isCancelled(result.getStandingOrderId())) {
+        client.sendInputSignal(nextInstanceId, "cancel", "cancelled by the user");
+      }
+    } else if (workflowInstance.getStatus().isError()) {
+      System.out.printf("\n\n>> Standing order error: %s\n\n", workflowInstance.getStatusReason());
+    }
+  }
+}
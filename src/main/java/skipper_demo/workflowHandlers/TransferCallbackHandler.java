@@ -4,17 +4,32 @@ import io.github.rgamba.skipper.SkipperEngine;
 import io.github.rgamba.skipper.api.CallbackHandler;
 import io.github.rgamba.skipper.models.WorkflowInstance;
 import lombok.NonNull;
+import skipper_demo.services.LedgerReconciler;
 import skipper_demo.workflows.TransferWorkflow;
 
 public class TransferCallbackHandler implements CallbackHandler {
+  private final TransferStatusNotifier statusNotifier;
+  private final LedgerReconciler reconciler;
+
+  public TransferCallbackHandler(
+      @NonNull TransferStatusNotifier statusNotifier, @NonNull LedgerReconciler reconciler) {
+    this.statusNotifier = statusNotifier;
+    this.reconciler = reconciler;
+  }
 
   @Override
   public void handleUpdate(
           @NonNull WorkflowInstance workflowInstance, @NonNull SkipperEngine engine) {
+    statusNotifier.publish(workflowInstance);
     if (workflowInstance.getStatus().isCompleted()) {
       TransferWorkflow.TransferResult result =
           (TransferWorkflow.TransferResult) workflowInstance.getResult().getValue();
       System.out.printf("\n\n>> Transfer result received: %s\n\n", result);
+      // The next reconciliation checks that the ledger has all the postings of the transfer. Results recorded before
+      // transfers reported their postings don't have them.
+      if (result.getPostings() != null) {
+        reconciler.expectTransfer(workflowInstance.getId(), result.getPostings());
+      }
     } else if (workflowInstance.getStatus().isError()) {
       System.out.printf("\n\n>> Transfer error: %s\n\n", workflowInstance.getStatusReason());
     }
@@ -0,0 +1,166 @@
+package skipper_demo.workflowHandlers;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.github.rgamba.skipper.models.WorkflowInstance;
+import lombok.NonNull;
+import lombok.Value;
+import skipper_demo.services.WorkflowStore;
+
+import javax.ws.rs.container.AsyncResponse;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+// Pushes transfer status changes to long-polling clients as soon as `TransferCallbackHandler` sees them.
+//
+// Waiting clients are suspended `AsyncResponse`s, so an open connection doesn't hold any thread: it is just an entry
+// in the subscriptions map until either an update for one of its transfers arrives or it times out. Every update gets
+// a version from a single counter, so a client watching many transfers only needs to send back the highest version
+// it has seen.
+//
+// The counter lives in memory, so versions are scoped by an epoch that is different for every process. Clients send
+// back the epoch of the last event they got along with its version, and a version from another epoch (i.e. from
+// before a restart, or from another node) is ignored, so the client gets the current status again.
+public class TransferStatusNotifier {
+  private static final int MAX_TRACKED_TRANSFERS = 100_000;
+  private static final long TRACKED_TRANSFER_TTL_HOURS = 1;
+  private static final long UNKNOWN_TRANSFER_TTL_SECONDS = 60;
+
+  private final Function<String, WorkflowInstance> store;
+  private final String epoch = UUID.randomUUID().toString();
+  private final AtomicLong versions = new AtomicLong(0);
+  // Latest known status of every recently updated transfer, so that clients catching up don't go to the store.
+  private final Cache<String, TransferStatusEvent> latest =
+      CacheBuilder.newBuilder()
+          .maximumSize(MAX_TRACKED_TRANSFERS)
+          .expireAfterWrite(TRACKED_TRANSFER_TTL_HOURS, TimeUnit.HOURS)
+          .build();
+  // Ids the store doesn't know about, so that clients polling for them don't go to the store on every request.
+  private final Cache<String, Boolean> unknown =
+      CacheBuilder.newBuilder()
+          .maximumSize(MAX_TRACKED_TRANSFERS)
+          .expireAfterWrite(UNKNOWN_TRANSFER_TTL_SECONDS, TimeUnit.SECONDS)
+          .build();
+  private final ConcurrentMap<String, Set<Subscription>> subscriptions = new ConcurrentHashMap<>();
+
+  public TransferStatusNotifier(@NonNull Function<String, WorkflowInstance> store) {
+    this.store = store;
+  }
+
+  public void publish(@NonNull WorkflowInstance workflowInstance) {
+    TransferStatusEvent event =
+        new TransferStatusEvent(
+            workflowInstance.getId(), epoch, versions.incrementAndGet(), workflowInstance);
+    latest.put(event.getId(), event);
+    unknown.invalidate(event.getId());
+    Set<Subscription> waiting = subscriptions.get(event.getId());
+    if (waiting != null) {
+      for (Subscription subscription : waiting) {
+        subscription.complete(Collections.singletonList(event));
+      }
+    }
+  }
+
+  // Resumes `response` with the status of every transfer in `ids` that changed after `sinceVersion` of
+  // `sinceEpoch`, waiting up to `timeoutSeconds` for a change if there is none yet. A timed out wait is resumed with
+  // an empty list. Transfers that don't exist are skipped, so a bad id doesn't fail the statuses of the others.
+  public void subscribe(
+      @NonNull Collection<String> ids,
+      String sinceEpoch,
+      long sinceVersion,
+      long timeoutSeconds,
+      @NonNull AsyncResponse response) {
+    long since = epoch.equals(sinceEpoch) ? sinceVersion : 0;
+    Subscription subscription = new Subscription(ids, response);
+    // We register before looking at the latest statuses, so an update published in between is never lost.
+    for (String id : ids) {
+      subscriptions.computeIfAbsent(id, key -> ConcurrentHashMap.newKeySet()).add(subscription);
+    }
+    response.setTimeout(timeoutSeconds, TimeUnit.SECONDS);
+    response.setTimeoutHandler(timedOut -> subscription.complete(Collections.emptyList()));
+    List<TransferStatusEvent> changed = new ArrayList<>();
+    try {
+      for (String id : ids) {
+        TransferStatusEvent event = latestFor(id);
+        if (event != null && event.getVersion() > since) {
+          changed.add(event);
+        }
+      }
+    } catch (RuntimeException e) {
+      unsubscribe(subscription);
+      throw e;
+    }
+    if (!changed.isEmpty()) {
+      subscription.complete(changed);
+    }
+  }
+
+  private TransferStatusEvent latestFor(String id) {
+    TransferStatusEvent event = latest.getIfPresent(id);
+    if (event != null) {
+      return event;
+    }
+    // We haven't seen any update for this transfer lately (e.g. it completed before this node started, or the entry
+    // expired), so we go to the store once and remember the answer. The new version might make a client that already
+    // had this status get it again, but it never misses it.
+    if (unknown.getIfPresent(id) != null) {
+      return null;
+    }
+    WorkflowInstance workflowInstance = WorkflowStore.findOrNull(store, id);
+    if (workflowInstance == null) {
+      unknown.put(id, true);
+      return null;
+    }
+    return latest
+        .asMap()
+        .computeIfAbsent(
+            id, key -> new TransferStatusEvent(key, epoch, versions.incrementAndGet(), workflowInstance));
+  }
+
+  private void unsubscribe(Subscription subscription) {
+    for (String id : subscription.ids) {
+      subscriptions.computeIfPresent(
+          id,
+          (key, waiting) -> {
+            waiting.remove(subscription);
+            return waiting.isEmpty() ? null : waiting;
+          });
+    }
+  }
+
+  private class Subscription {
+    private final Collection<String> ids;
+    private final AsyncResponse response;
+    private final AtomicBoolean completed = new AtomicBoolean(false);
+
+    Subscription(Collection<String> ids, AsyncResponse response) {
+      this.ids = ids;
+      this.response = response;
+    }
+
+    void complete(List<TransferStatusEvent> events) {
+      if (completed.compareAndSet(false, true)) {
+        unsubscribe(this);
+        response.resume(events);
+      }
+    }
+  }
+
+  @Value
+  public static class TransferStatusEvent {
+    String id;
+    String epoch;
+    long version;
+    WorkflowInstance workflowInstance;
+  }
+}
@@ -7,7 +7,6 @@ import io.github.rgamba.skipper.api.WaitTimeout;
 import io.github.rgamba.skipper.api.annotations.SignalConsumer;
 import io.github.rgamba.skipper.api.annotations.StateField;
 import io.github.rgamba.skipper.api.annotations.WorkflowMethod;
-import io.github.rgamba.skipper.models.FixedRetryStrategy;
 import lombok.NonNull;
 import skipper_demo.operations.Operations;
 
@@ -22,8 +21,9 @@ public class ApprovalWorkflow implements SkipperWorkflow {
           Operations.class,
           OperationConfig.builder()
               .retryStrategy(
-                  FixedRetryStrategy.builder()
-                      .retryDelay(Duration.ofSeconds(2))
+                  DecorrelatedJitterRetryStrategy.builder()
+                      .baseDelay(Duration.ofMillis(500))
+                      .maxDelay(Duration.ofSeconds(30))
                       .maxRetries(3)
                       .build())
               .build());
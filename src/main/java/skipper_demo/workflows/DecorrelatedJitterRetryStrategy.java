@@ -0,0 +1,67 @@
+package skipper_demo.workflows;
+
+import io.github.rgamba.skipper.models.RetryStrategy;
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.jackson.Jacksonized;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with decorrelated jitter.
+ *
+ * <p>With a fixed retry delay, every operation that failed at the same time (e.g. because the ledger was degraded)
+ * retries at the same time too, so the retries arrive in waves that keep the ledger overloaded. Here every retry
+ * waits a random delay within a window that grows three times with every retry (capped at {@code maxDelay}), which
+ * spreads the retries over a growing window.
+ *
+ * <p>The strategy is persisted along with the workflow, so it can't remember the previous delay it picked. Instead,
+ * the upper bound for retry {@code n} (starting at 0) is {@code baseDelay * 3^(n+1)}, i.e. three times the largest
+ * delay the previous retry could have picked, and the lower bound is a third of it (but at least {@code baseDelay}).
+ * Having the lower bound grow too means that all the retries together are guaranteed to wait at least {@link
+ * #minTotalDelay()}, which is what makes a retry budget outlast e.g. an open circuit breaker.
+ */
+@Value
+@Builder
+@Jacksonized
+public class DecorrelatedJitterRetryStrategy implements RetryStrategy {
+  @NonNull Duration baseDelay;
+  @NonNull Duration maxDelay;
+  int maxRetries;
+
+  @Override
+  public Optional<Duration> getNextRetryDelay(int currentRetries) {
+    if (currentRetries >= maxRetries) {
+      return Optional.empty();
+    }
+    long upper = upperBound(currentRetries);
+    return Optional.of(
+        Duration.ofMillis(ThreadLocalRandom.current().nextLong(lowerBound(upper), upper + 1)));
+  }
+
+  // The least time all the retries can wait in total. Not a getter, so it isn't persisted with the strategy.
+  public Duration minTotalDelay() {
+    long total = 0;
+    for (int i = 0; i < maxRetries; i++) {
+      total += lowerBound(upperBound(i));
+    }
+    return Duration.ofMillis(total);
+  }
+
+  private long upperBound(int currentRetries) {
+    long base = Math.max(1, baseDelay.toMillis());
+    long cap = Math.max(base, maxDelay.toMillis());
+    long upper = base;
+    for (int i = 0; i <= currentRetries && upper < cap; i++) {
+      upper = Math.min(cap, upper * 3);
+    }
+    return upper;
+  }
+
+  private long lowerBound(long upper) {
+    return Math.min(upper, Math.max(Math.max(1, baseDelay.toMillis()), upper / 3));
+  }
+}
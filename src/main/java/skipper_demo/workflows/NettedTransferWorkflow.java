@@ -0,0 +1,74 @@
+package skipper_demo.workflows;
+
+import io.github.rgamba.skipper.OperationProxyFactory;
+import io.github.rgamba.skipper.api.OperationConfig;
+import io.github.rgamba.skipper.api.SkipperWorkflow;
+import io.github.rgamba.skipper.api.WaitTimeout;
+import io.github.rgamba.skipper.api.annotations.SignalConsumer;
+import io.github.rgamba.skipper.api.annotations.StateField;
+import io.github.rgamba.skipper.api.annotations.WorkflowMethod;
+import lombok.NonNull;
+import skipper_demo.operations.NettingOperations;
+import skipper_demo.services.NettingBook;
+
+import java.time.Duration;
+
+/**
+ * A small transfer that, rather than being posted to the ledger on its own, is accumulated in the netting book and
+ * settled together with all the other transfers between the same two accounts by {@link NettingSettlementWorkflow}.
+ *
+ * <p>From the caller's point of view it behaves exactly like a {@link TransferWorkflow}: it completes with a
+ * {@link TransferWorkflow.TransferResult} once the batch it belongs to has been settled.
+ */
+public class NettedTransferWorkflow implements SkipperWorkflow {
+  // How long we wait for a settlement before trying to pull the transfer out of the netting book.
+  public static final Duration SETTLEMENT_TIMEOUT = Duration.ofMinutes(10);
+  // How many times we wait for the settlement of a transfer that is already part of a batch before giving up on it.
+  public static final int MAX_SETTLEMENT_WAITS = 6;
+  private final NettingOperations nettingOperations =
+      OperationProxyFactory.create(
+          NettingOperations.class,
+          OperationConfig.builder()
+              .retryStrategy(
+                  DecorrelatedJitterRetryStrategy.builder()
+                      .baseDelay(Duration.ofMillis(500))
+                      .maxDelay(Duration.ofSeconds(30))
+                      .maxRetries(3)
+                      .build())
+              .build());
+  // Set by the settlement through the `settled` signal.
+  @StateField public TransferWorkflow.TransferResult result = null;
+
+  @WorkflowMethod
+  public TransferWorkflow.TransferResult transfer(
+      @NonNull String transferId, @NonNull String from, @NonNull String to, int amount) {
+    if (amount <= 0) {
+      throw new IllegalArgumentException("amount must be greater than zero");
+    }
+    nettingOperations.enqueue(transferId, from, to, amount, TransferWorkflow.transferFee(amount));
+    for (int waits = 0; waits < MAX_SETTLEMENT_WAITS; waits++) {
+      try {
+        waitUntil(() -> result != null, SETTLEMENT_TIMEOUT);
+        return result;
+      } catch (WaitTimeout t) {
+        NettingBook.CancelOutcome outcome = nettingOperations.cancelPending(transferId);
+        if (outcome == NettingBook.CancelOutcome.CANCELLED) {
+          return new TransferWorkflow.TransferResult(false, "transfer was not settled in time");
+        }
+        if (outcome == NettingBook.CancelOutcome.UNKNOWN) {
+          // The netting book lost the transfer (e.g. it was restarted), so it will never be settled.
+          return new TransferWorkflow.TransferResult(false, "transfer is no longer in the netting book");
+        }
+        // The transfer is already part of a batch being settled, so we can't back out anymore and we keep waiting
+        // for its result.
+      }
+    }
+    return new TransferWorkflow.TransferResult(
+        false, "transfer settlement did not complete in time, its outcome is unknown");
+  }
+
+  @SignalConsumer
+  public void settled(@NonNull TransferWorkflow.TransferResult settlementResult) {
+    result = settlementResult;
+  }
+}
@@ -0,0 +1,168 @@
+package skipper_demo.workflows;
+
+import io.github.rgamba.skipper.OperationProxyFactory;
+import io.github.rgamba.skipper.api.OperationConfig;
+import io.github.rgamba.skipper.api.OperationError;
+import io.github.rgamba.skipper.api.Saga;
+import io.github.rgamba.skipper.api.SkipperWorkflow;
+import io.github.rgamba.skipper.api.WaitTimeout;
+import io.github.rgamba.skipper.api.annotations.SignalConsumer;
+import io.github.rgamba.skipper.api.annotations.StateField;
+import io.github.rgamba.skipper.api.annotations.WorkflowMethod;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.val;
+import skipper_demo.operations.NettingOperations;
+import skipper_demo.operations.Operations;
+import skipper_demo.services.LedgerError;
+import skipper_demo.services.NettingBook;
+import skipper_demo.services.PriorityLanes;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Settles one batch of netted transfers: it waits for the netting interval, drains the netting book and posts only
+ * the net amount of every pair of accounts to the ledger. No matter how many transfers went back and forth between
+ * two accounts, that's at most 3 postings per pair.
+ *
+ * <p>Every instance settles a single batch, so its history never grows. {@code NettingSettlementCallbackHandler}
+ * delivers the individual transfer results and starts the instance for the next batch.
+ */
+public class NettingSettlementWorkflow implements SkipperWorkflow {
+  // Only transfers below the approval threshold are netted, so their net positions are posted in the instant lane,
+  // however large the net amounts add up to.
+  private static final PriorityLanes.Lane NETTING_LANE = PriorityLanes.Lane.INSTANT;
+  // Same ledger, so same retry budget as the individual transfers.
+  private final Operations operations =
+      OperationProxyFactory.create(
+          Operations.class,
+          OperationConfig.builder().retryStrategy(TransferWorkflow.LEDGER_RETRY_STRATEGY).build());
+  private final NettingOperations nettingOperations =
+      OperationProxyFactory.create(
+          NettingOperations.class,
+          OperationConfig.builder()
+              .retryStrategy(
+                  DecorrelatedJitterRetryStrategy.builder()
+                      .baseDelay(Duration.ofMillis(500))
+                      .maxDelay(Duration.ofSeconds(30))
+                      .maxRetries(3)
+                      .build())
+              .build());
+
+  @StateField Boolean stopped = false;
+
+  @WorkflowMethod
+  public SettlementResult settle(@NonNull String cycleId, int generation, long intervalSeconds) {
+    if (intervalSeconds <= 0) {
+      throw new IllegalArgumentException("interval must be greater than zero");
+    }
+    try {
+      waitUntil(() -> stopped, Duration.ofSeconds(intervalSeconds));
+    } catch (WaitTimeout t) {
+      // Time to settle.
+    }
+    // Even when stopped we settle whatever is pending, so that no transfer is left without a result.
+    val batch = nettingOperations.drainBatch(instanceId(cycleId, generation));
+    List<SettledTransfer> settledTransfers = new ArrayList<>();
+    for (NettingBook.NetPosition position : batch.getPositions()) {
+      TransferWorkflow.TransferResult result = settlePosition(position);
+      for (String transferId : position.getTransferIds()) {
+        settledTransfers.add(new SettledTransfer(transferId, result));
+      }
+    }
+    return new SettlementResult(cycleId, generation, intervalSeconds, stopped, settledTransfers);
+  }
+
+  // Posts the net position of a pair of accounts as a saga: payers are debited first, then the receivers and the
+  // system account are credited.
+  private TransferWorkflow.TransferResult settlePosition(NettingBook.NetPosition position) {
+    Saga saga = new Saga();
+    try {
+      if (position.getFirstDelta() < 0) {
+        val code =
+            operations.withdraw(
+                position.getFirstAccount(),
+                -position.getFirstDelta(),
+                NETTING_LANE,
+                genIdempotencyToken());
+        saga.addCompensation(operations::rollbackWithdraw, code, genIdempotencyToken());
+      }
+      if (position.getSecondDelta() < 0) {
+        val code =
+            operations.withdraw(
+                position.getSecondAccount(),
+                -position.getSecondDelta(),
+                NETTING_LANE,
+                genIdempotencyToken());
+        saga.addCompensation(operations::rollbackWithdraw, code, genIdempotencyToken());
+      }
+      if (position.getFirstDelta() > 0) {
+        val code =
+            operations.deposit(
+                position.getFirstAccount(),
+                position.getFirstDelta(),
+                NETTING_LANE,
+                genIdempotencyToken());
+        saga.addCompensation(operations::rollbackDeposit, code, genIdempotencyToken());
+      }
+      if (position.getSecondDelta() > 0) {
+        val code =
+            operations.deposit(
+                position.getSecondAccount(),
+                position.getSecondDelta(),
+                NETTING_LANE,
+                genIdempotencyToken());
+        saga.addCompensation(operations::rollbackDeposit, code, genIdempotencyToken());
+      }
+      if (position.getFees() > 0) {
+        val code =
+            operations.deposit(
+                TransferWorkflow.SYSTEM_ACCOUNT,
+                position.getFees(),
+                NETTING_LANE,
+                genIdempotencyToken());
+        saga.addCompensation(operations::rollbackDeposit, code, genIdempotencyToken());
+      }
+      return new TransferWorkflow.TransferResult(true, "transfer settled successfully");
+    } catch (LedgerError | OperationError e) {
+      saga.compensate();
+      return new TransferWorkflow.TransferResult(
+          false, String.format("unexpected error when trying to settle transfer: %s", e.getMessage()));
+    }
+  }
+
+  @SignalConsumer
+  public void stop(String reason) {
+    stopped = true;
+  }
+
+  public static String instanceId(@NonNull String cycleId, int generation) {
+    return String.format("%s-%d", cycleId, generation);
+  }
+
+  // The inverse of `instanceId`, for when all we have is the workflow instance (e.g. it ended in error).
+  public static String cycleIdOf(@NonNull String instanceId) {
+    return instanceId.substring(0, instanceId.lastIndexOf('-'));
+  }
+
+  public static int generationOf(@NonNull String instanceId) {
+    return Integer.parseInt(instanceId.substring(instanceId.lastIndexOf('-') + 1));
+  }
+
+  @Value
+  public static class SettledTransfer {
+    String transferId;
+    TransferWorkflow.TransferResult result;
+  }
+
+  @Value
+  public static class SettlementResult {
+    String cycleId;
+    int generation;
+    long intervalSeconds;
+    boolean stopped;
+    List<SettledTransfer> settledTransfers;
+  }
+}
@@ -0,0 +1,134 @@
+package skipper_demo.workflows;
+
+import com.google.inject.Inject;
+import io.github.rgamba.skipper.OperationProxyFactory;
+import io.github.rgamba.skipper.api.OperationConfig;
+import io.github.rgamba.skipper.api.OperationError;
+import io.github.rgamba.skipper.api.SkipperWorkflow;
+import io.github.rgamba.skipper.api.WaitTimeout;
+import io.github.rgamba.skipper.api.annotations.SignalConsumer;
+import io.github.rgamba.skipper.api.annotations.StateField;
+import io.github.rgamba.skipper.api.annotations.WorkflowMethod;
+import lombok.NonNull;
+import lombok.Value;
+
+import java.time.Duration;
+
+/**
+ * This workflow models a standing order: transfer a fixed amount from one account to another every interval until
+ * the order is cancelled.
+ *
+ * <p>A naive implementation would be a never-ending `waitUntil` loop, but every tick adds entries to the workflow
+ * history, and the whole history is replayed every time the workflow resumes. So instead, each instance only runs a
+ * bounded number of ticks and then completes, asking `RecurringTransferCallbackHandler` to continue the standing
+ * order as a brand-new instance (next "generation"). That way the replay cost of a tick stays constant no matter how
+ * long the standing order has been active.
+ */
+public class RecurringTransferWorkflow implements SkipperWorkflow {
+  public static final int MAX_TICKS_PER_INSTANCE = 50;
+  // Every tick is a regular transfer, so we reuse the transfer workflow (with its saga and approvals) as a
+  // sub-workflow.
+  public final TransferWorkflow transferWorkflow =
+      OperationProxyFactory.create(
+          TransferWorkflow.class, OperationConfig.builder().timeout(Duration.ofMinutes(2)).build());
+
+  @StateField Boolean cancelled = false;
+  // Note these are only ever assigned (never incremented) from the workflow method, so replaying it is harmless.
+  @StateField Integer ticks = 0;
+  @StateField Integer failedTicks = 0;
+  private final ReplayProfiler profiler;
+
+  public RecurringTransferWorkflow() {
+    this(ReplayProfiler.disabled());
+  }
+
+  @Inject
+  public RecurringTransferWorkflow(@NonNull ReplayProfiler profiler) {
+    this.profiler = profiler;
+  }
+
+  @WorkflowMethod
+  public RecurringTransferResult schedule(
+      @NonNull String standingOrderId,
+      int generation,
+      @NonNull String from,
+      @NonNull String to,
+      int amount,
+      long intervalSeconds) {
+    // This is the workflow the profiler was written for: the replay cost should stay flat across generations.
+    return profiler.profile(
+        this,
+        instanceId(standingOrderId, generation),
+        () -> runTicks(standingOrderId, generation, from, to, amount, intervalSeconds));
+  }
+
+  private RecurringTransferResult runTicks(
+      String standingOrderId,
+      int generation,
+      String from,
+      String to,
+      int amount,
+      long intervalSeconds) {
+    if (intervalSeconds <= 0) {
+      throw new IllegalArgumentException("interval must be greater than zero");
+    }
+    int completed = 0;
+    int failed = 0;
+    while (completed < MAX_TICKS_PER_INSTANCE) {
+      try {
+        // We don't have anything to wait for other than the cancellation, so the timeout is what actually
+        // triggers every tick. Waiting doesn't hold any thread, it is just a timer in the store.
+        waitUntil(
+            () -> profiler.predicate(this, "cancelled", () -> cancelled),
+            Duration.ofSeconds(intervalSeconds));
+        break;
+      } catch (WaitTimeout t) {
+        completed++;
+        try {
+          TransferWorkflow.TransferResult result =
+              transferWorkflow.transfer(tickId(standingOrderId, generation, completed), from, to, amount);
+          if (!result.isSuccess()) {
+            failed++;
+          }
+        } catch (OperationError e) {
+          // The transfer didn't complete in time (or ended in error). That's a failed tick, but the standing order
+          // goes on.
+          failed++;
+        }
+        ticks = completed;
+        failedTicks = failed;
+      }
+    }
+    return new RecurringTransferResult(
+        standingOrderId, generation, from, to, amount, intervalSeconds, completed, failed, cancelled);
+  }
+
+  @SignalConsumer
+  public void cancel(String reason) {
+    cancelled = true;
+  }
+
+  // Instance ids are deterministic so that continuing a standing order is idempotent, even if the completion
+  // callback is delivered more than once.
+  public static String instanceId(@NonNull String standingOrderId, int generation) {
+    return String.format("%s-%d", standingOrderId, generation);
+  }
+
+  // Id of the transfer made on a given tick, so every tick is profiled as a transfer of its own.
+  public static String tickId(@NonNull String standingOrderId, int generation, int tick) {
+    return String.format("%s-tick-%d", instanceId(standingOrderId, generation), tick);
+  }
+
+  @Value
+  public static class RecurringTransferResult {
+    String standingOrderId;
+    int generation;
+    String from;
+    String to;
+    int amount;
+    long intervalSeconds;
+    int ticks;
+    int failedTicks;
+    boolean cancelled;
+  }
+}
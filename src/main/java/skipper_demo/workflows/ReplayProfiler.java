@@ -0,0 +1,291 @@
+package skipper_demo.workflows;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.dropwizard.jackson.Jackson;
+import io.github.rgamba.skipper.api.SkipperWorkflow;
+import io.github.rgamba.skipper.api.annotations.StateField;
+import lombok.NonNull;
+import lombok.Value;
+
+import java.lang.reflect.Field;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Measures how much it costs to replay workflow code.
+ *
+ * <p>Every time a workflow resumes (an operation completed, a signal arrived, a wait timed out...) skipper runs the
+ * workflow method again from the beginning, skipping over what already happened. That replay is pure CPU, and for
+ * workflows that loop or wait many times it grows with the history of the instance. The profiler records, per
+ * workflow type and per instance:
+ *
+ * <ul>
+ *   <li>the number of replays and the time spent in the workflow method,
+ *   <li>the number of evaluations and the time spent in every {@code waitUntil} predicate,
+ *   <li>the serialized size of the {@code @StateField} fields after a sample of the replays.
+ * </ul>
+ *
+ * <p>Workflows opt in by running their body through {@link #profile} and their predicates through {@link
+ * #predicate}. Per-instance numbers require the workflow to pass an instance key (e.g. a standing order id); otherwise
+ * the replays are only aggregated per workflow type.
+ *
+ * <p>Timings are cheap, but measuring the state means serializing it, which can cost as much as the replay itself. So
+ * the state size is only sampled every {@code stateSizeSampleRate} replays of a workflow type (or instance, when
+ * keyed), and not at all when the rate is 0. A disabled profiler just runs the code.
+ */
+public class ReplayProfiler {
+  private static final int MAX_TRACKED_INSTANCES = 10_000;
+  private static final int MAX_STATE_SIZES_PER_INSTANCE = 32;
+  private static final int MAX_INSTANCES_PER_REPORT = 20;
+
+  private final boolean enabled;
+  private final int stateSizeSampleRate;
+  private final ObjectMapper mapper = Jackson.newObjectMapper();
+  private final ConcurrentMap<Class<?>, List<Field>> stateFields = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Stats> workflows = new ConcurrentHashMap<>();
+  private final Cache<String, Stats> instances =
+      CacheBuilder.newBuilder().maximumSize(MAX_TRACKED_INSTANCES).build();
+  // The instance being replayed by the current thread, so predicates can be attributed to it.
+  private final ThreadLocal<Stats> currentInstance = new ThreadLocal<>();
+
+  public ReplayProfiler(boolean enabled, int stateSizeSampleRate) {
+    if (stateSizeSampleRate < 0) {
+      throw new IllegalArgumentException("stateSizeSampleRate must not be negative");
+    }
+    this.enabled = enabled;
+    this.stateSizeSampleRate = stateSizeSampleRate;
+  }
+
+  public static ReplayProfiler disabled() {
+    return new ReplayProfiler(false, 0);
+  }
+
+  public <T> T profile(
+      @NonNull SkipperWorkflow workflow, String instanceKey, @NonNull Supplier<T> body) {
+    if (!enabled) {
+      return body.get();
+    }
+    String type = workflow.getClass().getSimpleName();
+    Stats typeStats = workflows.computeIfAbsent(type, key -> new Stats(type, null));
+    Stats instanceStats = null;
+    if (instanceKey != null) {
+      instanceStats = instances.asMap().computeIfAbsent(type + "/" + instanceKey, key -> new Stats(type, instanceKey));
+    }
+    Stats previous = currentInstance.get();
+    currentInstance.set(instanceStats);
+    long start = System.nanoTime();
+    try {
+      return body.get();
+    } finally {
+      // This also runs when the workflow suspends on a wait, which is the common case for a replay.
+      long elapsed = System.nanoTime() - start;
+      currentInstance.set(previous);
+      Integer stateSize =
+          shouldSampleStateSize(instanceStats != null ? instanceStats : typeStats) ? stateSize(workflow) : null;
+      typeStats.recordReplay(elapsed, stateSize);
+      if (instanceStats != null) {
+        instanceStats.recordReplay(elapsed, stateSize);
+      }
+    }
+  }
+
+  public void profile(@NonNull SkipperWorkflow workflow, String instanceKey, @NonNull Runnable body) {
+    profile(
+        workflow,
+        instanceKey,
+        () -> {
+          body.run();
+          return null;
+        });
+  }
+
+  // Evaluates a `waitUntil` predicate, recording how long it took.
+  public boolean predicate(
+      @NonNull SkipperWorkflow workflow, @NonNull String name, @NonNull BooleanSupplier predicate) {
+    if (!enabled) {
+      return predicate.getAsBoolean();
+    }
+    String type = workflow.getClass().getSimpleName();
+    long start = System.nanoTime();
+    try {
+      return predicate.getAsBoolean();
+    } finally {
+      long elapsed = System.nanoTime() - start;
+      workflows.computeIfAbsent(type, key -> new Stats(type, null)).recordPredicate(name, elapsed);
+      Stats instanceStats = currentInstance.get();
+      if (instanceStats != null) {
+        instanceStats.recordPredicate(name, elapsed);
+      }
+    }
+  }
+
+  public Report getReport() {
+    List<Stats> allInstances = new ArrayList<>(instances.asMap().values());
+    allInstances.sort(Comparator.comparingLong(Stats::getReplays).reversed());
+    List<StatsReport> workflowReports = new ArrayList<>();
+    for (Stats stats : workflows.values()) {
+      List<StatsReport> instanceReports = new ArrayList<>();
+      for (Stats instance : allInstances) {
+        if (instance.type.equals(stats.type) && instanceReports.size() < MAX_INSTANCES_PER_REPORT) {
+          instanceReports.add(instance.toReport(Collections.emptyList()));
+        }
+      }
+      workflowReports.add(stats.toReport(instanceReports));
+    }
+    workflowReports.sort(Comparator.comparing(StatsReport::getWorkflowType));
+    return new Report(workflowReports);
+  }
+
+  public StatsReport getWorkflowReport(@NonNull Class<? extends SkipperWorkflow> workflowType) {
+    Stats stats = workflows.get(workflowType.getSimpleName());
+    return stats == null ? null : stats.toReport(Collections.emptyList());
+  }
+
+  public StatsReport getInstanceReport(
+      @NonNull Class<? extends SkipperWorkflow> workflowType, @NonNull String instanceKey) {
+    Stats stats = instances.getIfPresent(workflowType.getSimpleName() + "/" + instanceKey);
+    return stats == null ? null : stats.toReport(Collections.emptyList());
+  }
+
+  public void reset() {
+    workflows.clear();
+    instances.invalidateAll();
+  }
+
+  // The first replay is always sampled, so even short-lived instances report their state size.
+  private boolean shouldSampleStateSize(Stats stats) {
+    return stateSizeSampleRate > 0 && stats.getReplays() % stateSizeSampleRate == 0;
+  }
+
+  private int stateSize(SkipperWorkflow workflow) {
+    Map<String, Object> state = new LinkedHashMap<>();
+    try {
+      for (Field field : stateFields.computeIfAbsent(workflow.getClass(), ReplayProfiler::findStateFields)) {
+        state.put(field.getName(), field.get(workflow));
+      }
+      return mapper.writeValueAsBytes(state).length;
+    } catch (Exception e) {
+      return -1;
+    }
+  }
+
+  private static List<Field> findStateFields(Class<?> workflowClass) {
+    List<Field> fields = new ArrayList<>();
+    for (Class<?> c = workflowClass; c != null && c != Object.class; c = c.getSuperclass()) {
+      for (Field field : c.getDeclaredFields()) {
+        if (field.isAnnotationPresent(StateField.class)) {
+          field.setAccessible(true);
+          fields.add(field);
+        }
+      }
+    }
+    return fields;
+  }
+
+  private static class Stats {
+    private final String type;
+    private final String instanceKey;
+    private final Map<String, PredicateStats> predicates = new LinkedHashMap<>();
+    private final Deque<Integer> stateSizes = new ArrayDeque<>();
+    private long replays = 0;
+    private long totalNanos = 0;
+    private long maxNanos = 0;
+
+    Stats(String type, String instanceKey) {
+      this.type = type;
+      this.instanceKey = instanceKey;
+    }
+
+    synchronized long getReplays() {
+      return replays;
+    }
+
+    synchronized void recordReplay(long nanos, Integer stateSize) {
+      replays++;
+      totalNanos += nanos;
+      maxNanos = Math.max(maxNanos, nanos);
+      if (stateSize == null) {
+        return;
+      }
+      stateSizes.addLast(stateSize);
+      if (stateSizes.size() > MAX_STATE_SIZES_PER_INSTANCE) {
+        stateSizes.removeFirst();
+      }
+    }
+
+    synchronized void recordPredicate(String name, long nanos) {
+      predicates.computeIfAbsent(name, key -> new PredicateStats()).record(nanos);
+    }
+
+    synchronized StatsReport toReport(List<StatsReport> instances) {
+      Map<String, PredicateReport> predicateReports = new LinkedHashMap<>();
+      for (Map.Entry<String, PredicateStats> predicate : predicates.entrySet()) {
+        predicateReports.put(predicate.getKey(), predicate.getValue().toReport());
+      }
+      return new StatsReport(
+          type,
+          instanceKey,
+          replays,
+          totalNanos / 1000,
+          maxNanos / 1000,
+          predicateReports,
+          new ArrayList<>(stateSizes),
+          instances);
+    }
+  }
+
+  private static class PredicateStats {
+    private long evaluations = 0;
+    private long totalNanos = 0;
+    private long maxNanos = 0;
+
+    void record(long nanos) {
+      evaluations++;
+      totalNanos += nanos;
+      maxNanos = Math.max(maxNanos, nanos);
+    }
+
+    PredicateReport toReport() {
+      return new PredicateReport(evaluations, totalNanos / 1000, maxNanos / 1000);
+    }
+  }
+
+  @Value
+  public static class PredicateReport {
+    long evaluations;
+    long totalMicros;
+    long maxMicros;
+  }
+
+  @Value
+  public static class StatsReport {
+    String workflowType;
+    // Null for the aggregated stats of a workflow type.
+    String instanceKey;
+    long replays;
+    long totalMethodMicros;
+    long maxMethodMicros;
+    Map<String, PredicateReport> predicates;
+    // Serialized size in bytes of the @StateField fields after the latest sampled replays, oldest first.
+    List<Integer> stateSizes;
+    // The instances with the most replays (only for workflow types).
+    List<StatsReport> instances;
+  }
+
+  @Value
+  public static class Report {
+    List<StatsReport> workflows;
+  }
+}
@@ -1,5 +1,6 @@
 package skipper_demo.workflows;
 
+import com.google.inject.Inject;
 import io.github.rgamba.skipper.OperationProxyFactory;
 import io.github.rgamba.skipper.api.OperationConfig;
 import io.github.rgamba.skipper.api.OperationError;
@@ -7,32 +8,40 @@ import io.github.rgamba.skipper.api.Saga;
 import io.github.rgamba.skipper.api.SkipperWorkflow;
 import io.github.rgamba.skipper.api.annotations.StateField;
 import io.github.rgamba.skipper.api.annotations.WorkflowMethod;
-import io.github.rgamba.skipper.models.FixedRetryStrategy;
+import lombok.AllArgsConstructor;
 import lombok.NonNull;
 import lombok.Value;
 import lombok.val;
 import skipper_demo.operations.Operations;
+import skipper_demo.services.FxQuote;
+import skipper_demo.services.Ledger;
 import skipper_demo.services.LedgerError;
+import skipper_demo.services.PriorityLanes;
 
 import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class TransferWorkflow implements SkipperWorkflow {
   // These constants are part of the transfer business logic, unrelated to skipper.
   public static final String SYSTEM_ACCOUNT = "system";
   public static final Integer AMOUNT_APPROVAL_THRESHOLD = 100;
+  // It is recommended to refine a retry strategy so that skipper knows how to react in case of unexpected errors.
+  // Here we use jittered exponential backoff, so that transfers failing at the same time (e.g. when the ledger is
+  // degraded) don't all retry at the same time. The retries wait at least 16.5s in total, which has to be longer than
+  // the ledger circuit breaker stays open (checked on startup), or every transfer in flight when the breaker trips
+  // would fail for good.
+  public static final DecorrelatedJitterRetryStrategy LEDGER_RETRY_STRATEGY =
+      DecorrelatedJitterRetryStrategy.builder()
+          .baseDelay(Duration.ofMillis(500))
+          .maxDelay(Duration.ofSeconds(30))
+          .maxRetries(4)
+          .build();
   // This is where we define the operations that are going to be used in our workflow.
   private final Operations operations =
       OperationProxyFactory.create(
-          Operations.class,
-          OperationConfig.builder()
-              .retryStrategy(
-                  // It is recommended to refine a retry strategy so that skipper knows how to react
-                  // in case of unexpected errors.
-                  FixedRetryStrategy.builder()
-                      .retryDelay(Duration.ofSeconds(2))
-                      .maxRetries(2)
-                      .build())
-              .build());
+          Operations.class, OperationConfig.builder().retryStrategy(LEDGER_RETRY_STRATEGY).build());
   // We are also going to use another workflow inside this workflow (sub-workflow). Similar to
   // how we declare the operations we are going to use, we need to declare the sub-workflows in a similar fashion.
   public final ApprovalWorkflow approvalWorkflow =
@@ -47,6 +56,21 @@ public class TransferWorkflow implements SkipperWorkflow {
   // creator can later know whether the transfer required an approval.
   @StateField
   Boolean approvalRequired = false;
+  // The exchange rates used for this transfer, including the version of the rate table they were taken from. The
+  // amount is always in the sender's currency.
+  @StateField
+  FxQuote fxQuote = null;
+  private final ReplayProfiler profiler;
+
+  // Needed for the sub-workflow proxies, which never run the workflow code.
+  public TransferWorkflow() {
+    this(ReplayProfiler.disabled());
+  }
+
+  @Inject
+  public TransferWorkflow(@NonNull ReplayProfiler profiler) {
+    this.profiler = profiler;
+  }
 
   // This is our main workflow method! This is where all the stuff happens.
   //
@@ -57,7 +81,14 @@ public class TransferWorkflow implements SkipperWorkflow {
   // MUST BE DETERMINISTIC. It must also avoid any side effects, and preferably it should perform any I/O through
   // operations rather than doing it directly.
   @WorkflowMethod
-  public TransferResult transfer(@NonNull String from, @NonNull String to, int amount) {
+  public TransferResult transfer(
+      @NonNull String transferId, @NonNull String from, @NonNull String to, int amount) {
+    // Every completed operation replays the saga from the top, so we record how much time that takes, per transfer.
+    // The workflow doesn't know its own instance id, so the caller passes the transfer id in.
+    return profiler.profile(this, transferId, () -> executeTransfer(from, to, amount));
+  }
+
+  private TransferResult executeTransfer(String from, String to, int amount) {
     validateAmount(amount);
     int transferFee = transferFee(amount);
     // A saga is a convenient way to model a series of operations that and their compensating operations (rollbacks) in
@@ -79,19 +110,45 @@ public class TransferWorkflow implements SkipperWorkflow {
           return new TransferResult(false, "unable to get transfer approval");
         }
       }
+      // Accounts may hold different currencies, so we get the rates to use. Being an operation, the quote is taken
+      // only once and replays will keep converting with the exact same rates.
+      fxQuote = operations.quoteTransfer(from, to);
+      // We convert the amounts before posting anything: once the sender is debited, a conversion that fails (or rounds
+      // a small amount down to nothing) would leave the money taken and not delivered.
+      int creditAmount;
+      int creditFee;
+      try {
+        creditAmount = fxQuote.convert(amount);
+        creditFee = fxQuote.convertFee(transferFee);
+      } catch (ArithmeticException e) {
+        return new TransferResult(
+            false, String.format("amount is too large to convert to %s", fxQuote.getToCurrency()));
+      }
+      if (creditAmount <= 0 || (transferFee > 0 && creditFee <= 0)) {
+        return new TransferResult(
+            false, String.format("amount is too small to convert to %s", fxQuote.getToCurrency()));
+      }
+      // All the postings of the transfer run in the lane of the transfer itself.
+      val lane = approvalRequired ? PriorityLanes.Lane.APPROVAL : PriorityLanes.Lane.INSTANT;
       // We then initiate our transfer by executing a series of operations one after the other.
-      val debitAuthCode = operations.withdraw(from, amount + transferFee, genIdempotencyToken());
+      val debitAuthCode = operations.withdraw(from, amount + transferFee, lane, genIdempotencyToken());
       // Note that even though we create a compensation for every operation, the actual compensation WON'T BE EXECUTED here.
       // This is just a way to say "hey, in case you need to roll back the previous operation, this is how you do it".
       saga.addCompensation(operations::rollbackWithdraw, debitAuthCode, genIdempotencyToken());
-      val creditAuthCode = operations.deposit(to, amount, genIdempotencyToken());
+      val creditAuthCode =
+          operations.deposit(to, creditAmount, lane, genIdempotencyToken());
       saga.addCompensation(operations::rollbackDeposit, creditAuthCode, genIdempotencyToken());
       val systemCreditAuthCode =
-          operations.deposit(SYSTEM_ACCOUNT, transferFee, genIdempotencyToken());
+          operations.deposit(SYSTEM_ACCOUNT, creditFee, lane, genIdempotencyToken());
       saga.addCompensation(
           operations::rollbackDeposit, systemCreditAuthCode, genIdempotencyToken());
       // Yay! everything worked just fine so complete the workflow and signal a successful result to the caller.
-      return new TransferResult(true, "transfer completed successfully");
+      // The result also lists the postings we made, so the ledger reconciliation can verify them.
+      Map<String, Ledger.Transaction> postings = new LinkedHashMap<>();
+      postings.put(debitAuthCode, new Ledger.Transaction(from, "withdraw", amount + transferFee));
+      postings.put(creditAuthCode, new Ledger.Transaction(to, "deposit", creditAmount));
+      postings.put(systemCreditAuthCode, new Ledger.Transaction(SYSTEM_ACCOUNT, "deposit", creditFee));
+      return new TransferResult(true, "transfer completed successfully", postings);
     } catch (LedgerError | OperationError e) {
       // In case any of the previous operations failed to complete, either because of a non-recoverable error like
       // the sender not having enough funds, or because max number of retries was reached, we need to rollback or
@@ -114,13 +171,20 @@ public class TransferWorkflow implements SkipperWorkflow {
     }
   }
 
-  private int transferFee(int amount) {
+  static int transferFee(int amount) {
     return (int) Math.round(amount * .1);
   }
 
   @Value
+  @AllArgsConstructor
   public static class TransferResult {
     boolean isSuccess;
     String message;
+    // The ledger postings made by a successful transfer, indexed by transaction id.
+    Map<String, Ledger.Transaction> postings;
+
+    public TransferResult(boolean isSuccess, String message) {
+      this(isSuccess, message, Collections.emptyMap());
+    }
   }
 }
@@ -1,6 +1,8 @@
 package skipper_demo.workflows;
 
+import com.google.inject.Inject;
 import io.github.rgamba.skipper.OperationProxyFactory;
+import io.github.rgamba.skipper.api.OperationConfig;
 import io.github.rgamba.skipper.api.SkipperWorkflow;
 import io.github.rgamba.skipper.api.WaitTimeout;
 import io.github.rgamba.skipper.api.annotations.SignalConsumer;
@@ -22,7 +24,16 @@ import java.util.Map;
  * the second phase when the user introduces coins until the amount is enough to cover for the total price.
  */
 public class VendingMachine implements SkipperWorkflow {
-    private VendingMachineOperations machineOperations = OperationProxyFactory.create(VendingMachineOperations.class);
+    // Vending operations are rejected while the vending lane is full, so they are retried with a backoff.
+    private VendingMachineOperations machineOperations = OperationProxyFactory.create(
+            VendingMachineOperations.class,
+            OperationConfig.builder()
+                    .retryStrategy(DecorrelatedJitterRetryStrategy.builder()
+                            .baseDelay(Duration.ofMillis(200))
+                            .maxDelay(Duration.ofSeconds(10))
+                            .maxRetries(5)
+                            .build())
+                    .build());
     private static final Map<String, Integer> products = new HashMap<String, Integer>(){{
         put("coke", 3);
         put("chips", 5);
@@ -30,16 +41,33 @@ public class VendingMachine implements SkipperWorkflow {
     @StateField int balance = 0; // The amount of money inserted by the user so far
     @StateField List<String> cart = new ArrayList<>(); // The items selected by the user
     @StateField VendingStage stage = VendingStage.WAITING_FOR_PRODUCTS; // Marker for the current stage of the workflow
+    private final ReplayProfiler profiler;
+
+    public VendingMachine() {
+        this(ReplayProfiler.disabled());
+    }
+
+    @Inject
+    public VendingMachine(@NonNull ReplayProfiler profiler) {
+        this.profiler = profiler;
+    }
 
     /**
-     * This workflow takes in no initial arguments. Think of the start of the user touching the screen of the vending
-     * machine or pressing a button as the trigger for this workflow.
+     * The only initial argument is the id of the session, which is also the id of the workflow instance. Think of the
+     * start of the user touching the screen of the vending machine or pressing a button as the trigger for this
+     * workflow.
      *
      * <p>You'll also notice this workflow doesn't have a return value. All I/O, including dispensing the items, is
      * performed through operations.
      */
     @WorkflowMethod
-    public void startSession() {
+    public void startSession(@NonNull String sessionId) {
+        // The whole session is replayed every time the user adds a product or inserts a coin, so we keep an eye on how
+        // expensive that gets for every session (see `ReplayProfiler`).
+        profiler.profile(this, sessionId, this::runSession);
+    }
+
+    private void runSession() {
         // In the initial phase we'll wait for the user to select items. Given user selection is an async operation
         // that requires some input from the user, we'll use signals to allow the user to pass in the selections to this
         // workflow.
@@ -50,7 +78,10 @@ public class VendingMachine implements SkipperWorkflow {
         while (balance == 0) {
             int cartItems = cart.size();
             try {
-                waitUntil(() -> cartItems != cart.size() || balance > 0, Duration.ofMinutes(2));
+                waitUntil(
+                        () -> profiler.predicate(
+                                this, "cartChangedOrPaid", () -> cartItems != cart.size() || balance > 0),
+                        Duration.ofMinutes(2));
             } catch (WaitTimeout unused) {
                 break;
             }
@@ -59,7 +90,9 @@ public class VendingMachine implements SkipperWorkflow {
         // coins until the cart balance is covered.
         stage = VendingStage.WAITING_FOR_COINS;
         try {
-            waitUntil(() -> balance >= getCartTotal(), Duration.ofMinutes(2));
+            waitUntil(
+                    () -> profiler.predicate(this, "balanceCovered", () -> balance >= getCartTotal()),
+                    Duration.ofMinutes(2));
             machineOperations.dispense(cart);
             if (balance > getCartTotal()) {
                 machineOperations.returnChange(balance - getCartTotal());
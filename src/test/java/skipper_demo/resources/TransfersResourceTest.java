@@ -0,0 +1,216 @@
+package skipper_demo.resources;
+
+import io.github.rgamba.skipper.client.SkipperClient;
+import io.github.rgamba.skipper.models.WorkflowInstance;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.verification.VerificationMode;
+import skipper_demo.services.FxRateTable;
+import skipper_demo.services.PriorityLanes;
+import skipper_demo.services.ShardedLedger;
+import skipper_demo.services.StubFxRateProvider;
+import skipper_demo.workflowHandlers.TransferCallbackHandler;
+import skipper_demo.workflowHandlers.TransferStatusNotifier;
+import skipper_demo.workflows.TransferWorkflow;
+
+import javax.ws.rs.ClientErrorException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class TransfersResourceTest {
+  private SkipperClient client;
+  private PriorityLanes lanes;
+  private TransfersResource resource;
+  private WorkflowInstance instance;
+
+  @Before
+  public void setUp() {
+    client = mock(SkipperClient.class, RETURNS_DEEP_STUBS);
+    Map<PriorityLanes.Lane, PriorityLanes.Limits> limits = new EnumMap<>(PriorityLanes.Lane.class);
+    for (PriorityLanes.Lane lane : PriorityLanes.Lane.values()) {
+      limits.put(lane, new PriorityLanes.Limits(1, 1));
+    }
+    lanes = new PriorityLanes(limits, TransferWorkflow.AMOUNT_APPROVAL_THRESHOLD);
+    resource =
+        new TransfersResource(
+            client,
+            ShardedLedger.local(1),
+            new FxRateTable(new StubFxRateProvider()),
+            false,
+            mock(TransferStatusNotifier.class),
+            lanes);
+    instance = mock(WorkflowInstance.class);
+    stubTransfer("alice", "bob", 10, instance);
+  }
+
+  @After
+  public void tearDown() {
+    lanes.shutdown();
+  }
+
+  @Test
+  public void testReopeningAnAccountInTheSameCurrencyIsANoOp() {
+    resource.openAccount("carol", "EUR");
+    resource.openAccount("carol", "EUR");
+  }
+
+  @Test
+  public void testReopeningAnAccountInAnotherCurrencyIsAConflict() {
+    resource.openAccount("carol", "EUR");
+    ClientErrorException e =
+        assertThrows(ClientErrorException.class, () -> resource.openAccount("carol", "GBP"));
+    assertEquals(409, e.getResponse().getStatus());
+  }
+
+  @Test
+  public void testRetriesWithTheSameKeyReturnTheSameTransfer() {
+    assertSame(instance, resource.initiateTransfer("key", 10, "alice", "bob"));
+    assertSame(instance, resource.initiateTransfer("key", 10, "alice", "bob"));
+    verifyTransferCreated(times(1), TransfersResource.workflowIdFor("alice", "key"));
+    verify(client, never()).getWorkflowInstance(anyString());
+  }
+
+  @Test
+  public void testConcurrentRetriesCreateASingleTransfer() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<WorkflowInstance>> results = new ArrayList<>();
+    try {
+      for (int i = 0; i < 8; i++) {
+        results.add(
+            executor.submit(
+                () -> {
+                  start.await();
+                  return resource.initiateTransfer("key", 10, "alice", "bob");
+                }));
+      }
+      start.countDown();
+      for (Future<WorkflowInstance> result : results) {
+        assertSame(instance, result.get());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    verifyTransferCreated(times(1), TransfersResource.workflowIdFor("alice", "key"));
+  }
+
+  @Test
+  public void testKeysAreScopedBySender() {
+    stubTransfer("carol", "bob", 10, mock(WorkflowInstance.class));
+    assertNotEquals(
+        TransfersResource.workflowIdFor("alice", "key"), TransfersResource.workflowIdFor("carol", "key"));
+    assertNotSame(
+        resource.initiateTransfer("key", 10, "alice", "bob"),
+        resource.initiateTransfer("key", 10, "carol", "bob"));
+    verifyTransferCreated(times(1), TransfersResource.workflowIdFor("alice", "key"));
+    verifyTransferCreated(times(1), TransfersResource.workflowIdFor("carol", "key"));
+  }
+
+  @Test
+  public void testReusingAKeyForADifferentTransferIsRejected() {
+    resource.initiateTransfer("key", 10, "alice", "bob");
+    ClientErrorException differentAmount =
+        assertThrows(
+            ClientErrorException.class, () -> resource.initiateTransfer("key", 20, "alice", "bob"));
+    assertEquals(422, differentAmount.getResponse().getStatus());
+    assertThrows(
+        ClientErrorException.class, () -> resource.initiateTransfer("key", 10, "alice", "carol"));
+    verifyTransferCreated(times(1), TransfersResource.workflowIdFor("alice", "key"));
+  }
+
+  @Test
+  public void testKeyUsedBeforeTheCacheReturnsTheExistingTransfer() {
+    // The instance id is taken (e.g. the transfer was created by another node), so creating it again fails
+    String workflowId = TransfersResource.workflowIdFor("alice", "old-key");
+    when(client.createWorkflowInstance(
+            eq(TransferWorkflow.class),
+            eq(workflowId),
+            eq(TransferCallbackHandler.class),
+            eq(workflowId),
+            eq("alice"),
+            eq("bob"),
+            eq(10)))
+        .thenThrow(new IllegalStateException("duplicate id"));
+    WorkflowInstance existing = mock(WorkflowInstance.class);
+    when(client.getWorkflowInstance(workflowId)).thenReturn(existing);
+    assertSame(existing, resource.initiateTransfer("old-key", 10, "alice", "bob"));
+  }
+
+  @Test
+  public void testCreationErrorIsRethrownWhenNoTransferExists() {
+    String workflowId = TransfersResource.workflowIdFor("alice", "key");
+    IllegalStateException error = new IllegalStateException("store unavailable");
+    when(client.createWorkflowInstance(
+            eq(TransferWorkflow.class),
+            eq(workflowId),
+            eq(TransferCallbackHandler.class),
+            eq(workflowId),
+            eq("alice"),
+            eq("bob"),
+            eq(10)))
+        .thenThrow(error);
+    when(client.getWorkflowInstance(workflowId)).thenReturn(null);
+    assertSame(
+        error,
+        assertThrows(
+            IllegalStateException.class, () -> resource.initiateTransfer("key", 10, "alice", "bob")));
+    // Failures are not cached, so the next retry tries again
+    reset(client);
+    stubTransfer("alice", "bob", 10, instance);
+    assertSame(instance, resource.initiateTransfer("key", 10, "alice", "bob"));
+  }
+
+  @Test
+  public void testTransfersWithoutKeyAreNotDeduped() {
+    resource.initiateTransfer(null, 10, "alice", "bob");
+    resource.initiateTransfer(null, 10, "alice", "bob");
+    verify(client, times(2))
+        .createWorkflowInstance(
+            eq(TransferWorkflow.class),
+            anyString(),
+            eq(TransferCallbackHandler.class),
+            anyString(),
+            eq("alice"),
+            eq("bob"),
+            eq(10));
+  }
+
+  private void stubTransfer(String sender, String receiver, int amount, WorkflowInstance created) {
+    when(client
+            .createWorkflowInstance(
+                eq(TransferWorkflow.class),
+                anyString(),
+                eq(TransferCallbackHandler.class),
+                anyString(),
+                eq(sender),
+                eq(receiver),
+                eq(amount))
+            .getWorkflowInstance())
+        .thenReturn(created);
+    // Stubbing through deep stubs records the call on the client, which would throw off the verifications
+    clearInvocations(client);
+  }
+
+  private void verifyTransferCreated(VerificationMode mode, String workflowId) {
+    verify(client, mode)
+        .createWorkflowInstance(
+            eq(TransferWorkflow.class),
+            eq(workflowId),
+            eq(TransferCallbackHandler.class),
+            eq(workflowId),
+            anyString(),
+            anyString(),
+            anyInt());
+  }
+}
@@ -0,0 +1,192 @@
+package skipper_demo.services;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class CircuitBreakerTest {
+  private Clock clock;
+  private CircuitBreaker breaker;
+
+  @Before
+  public void setUp() {
+    clock = mock(Clock.class);
+    when(clock.instant()).thenReturn(Instant.ofEpochSecond(1000));
+    when(clock.getZone()).thenReturn(ZoneOffset.UTC);
+    breaker = new CircuitBreaker("ledger", 3, Duration.ofSeconds(10), LedgerError.class, clock);
+  }
+
+  @Test
+  public void testBreakerOpensAfterConsecutiveFailures() {
+    for (int i = 0; i < 3; i++) {
+      assertThrows(RuntimeException.class, this::fail);
+    }
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    assertThrows(CircuitBreakerOpenException.class, () -> breaker.call(() -> "ok"));
+  }
+
+  @Test
+  public void testSuccessResetsTheFailureCount() {
+    assertThrows(RuntimeException.class, this::fail);
+    assertThrows(RuntimeException.class, this::fail);
+    assertEquals("ok", breaker.call(() -> "ok"));
+    assertThrows(RuntimeException.class, this::fail);
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+  }
+
+  @Test
+  public void testIgnoredErrorsDoNotOpenTheBreaker() {
+    for (int i = 0; i < 5; i++) {
+      assertThrows(
+          LedgerError.class,
+          () ->
+              breaker.call(
+                  () -> {
+                    throw new LedgerError("not enough balance");
+                  }));
+    }
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+  }
+
+  @Test
+  public void testBreakerClosesWhenTheTrialCallSucceeds() {
+    for (int i = 0; i < 3; i++) {
+      assertThrows(RuntimeException.class, this::fail);
+    }
+    when(clock.instant()).thenReturn(Instant.ofEpochSecond(1011));
+    assertEquals("ok", breaker.call(() -> "ok"));
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+  }
+
+  @Test
+  public void testBreakerReopensWhenTheTrialCallFails() {
+    for (int i = 0; i < 3; i++) {
+      assertThrows(RuntimeException.class, this::fail);
+    }
+    when(clock.instant()).thenReturn(Instant.ofEpochSecond(1011));
+    assertThrows(IllegalStateException.class, this::fail);
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    assertThrows(CircuitBreakerOpenException.class, () -> breaker.call(() -> "ok"));
+  }
+
+  @Test
+  public void testTrialCallThrowingAnErrorReopensTheBreaker() {
+    for (int i = 0; i < 3; i++) {
+      assertThrows(RuntimeException.class, this::fail);
+    }
+    when(clock.instant()).thenReturn(Instant.ofEpochSecond(1011));
+    assertThrows(
+        AssertionError.class,
+        () ->
+            breaker.call(
+                () -> {
+                  throw new AssertionError("unexpected");
+                }));
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    // The trial slot was given back, so the next trial goes through once the breaker can be tried again
+    when(clock.instant()).thenReturn(Instant.ofEpochSecond(1022));
+    assertEquals("ok", breaker.call(() -> "ok"));
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+  }
+
+  @Test
+  public void testSlowCallFromBeforeTheBreakerOpenedDoesNotCloseIt() {
+    String result =
+        breaker.call(
+            () -> {
+              // The breaker opens while this call is still running.
+              for (int i = 0; i < 3; i++) {
+                assertThrows(RuntimeException.class, this::fail);
+              }
+              return "ok";
+            });
+    assertEquals("ok", result);
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    assertThrows(CircuitBreakerOpenException.class, () -> breaker.call(() -> "ok"));
+  }
+
+  @Test
+  public void testSlowCallFromBeforeTheBreakerOpenedDoesNotEndTheTrial() throws Exception {
+    CountDownLatch slowCallStarted = new CountDownLatch(1);
+    CountDownLatch finishSlowCall = new CountDownLatch(1);
+    Thread slowCall =
+        new Thread(
+            () ->
+                breaker.call(
+                    () -> {
+                      slowCallStarted.countDown();
+                      await(finishSlowCall);
+                      return "ok";
+                    }));
+    slowCall.start();
+    slowCallStarted.await();
+    for (int i = 0; i < 3; i++) {
+      assertThrows(RuntimeException.class, this::fail);
+    }
+    when(clock.instant()).thenReturn(Instant.ofEpochSecond(1011));
+
+    CountDownLatch trialStarted = new CountDownLatch(1);
+    CountDownLatch finishTrial = new CountDownLatch(1);
+    Thread trial =
+        new Thread(
+            () ->
+                breaker.call(
+                    () -> {
+                      trialStarted.countDown();
+                      await(finishTrial);
+                      return "ok";
+                    }));
+    trial.start();
+    trialStarted.await();
+
+    finishSlowCall.countDown();
+    slowCall.join();
+    // The trial is still running, so the breaker stays half-open and no other call is let through.
+    assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    assertThrows(CircuitBreakerOpenException.class, () -> breaker.call(() -> "ok"));
+
+    finishTrial.countDown();
+    trial.join();
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+  }
+
+  @Test
+  public void testFailuresFromBeforeTheBreakerOpenedDoNotReopenIt() {
+    assertThrows(
+        IllegalStateException.class,
+        () ->
+            breaker.call(
+                () -> {
+                  for (int i = 0; i < 3; i++) {
+                    assertThrows(RuntimeException.class, this::fail);
+                  }
+                  when(clock.instant()).thenReturn(Instant.ofEpochSecond(1011));
+                  assertEquals("ok", breaker.call(() -> "ok"));
+                  throw new IllegalStateException("ledger is down");
+                }));
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private String fail() {
+    return breaker.call(
+        () -> {
+          throw new IllegalStateException("ledger is down");
+        });
+  }
+}
@@ -0,0 +1,70 @@
+package skipper_demo.services;
+
+import lombok.val;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class FxRateTableTest {
+  private StubFxRateProvider provider;
+  private FxRateTable table;
+
+  @Before
+  public void setUp() {
+    provider = spy(new StubFxRateProvider());
+    table = new FxRateTable(provider);
+  }
+
+  @Test
+  public void testSameCurrencyIsNotConverted() {
+    val quote = table.quote("EUR", "EUR", "EUR");
+    assertEquals(123, quote.convert(123));
+    assertEquals(7, quote.convertFee(7));
+  }
+
+  @Test
+  public void testConversionUsesTheRatesRelativeToTheBaseCurrency() {
+    val quote = table.quote("EUR", "USD", "GBP");
+    assertEquals(108, quote.convert(100));
+    assertEquals(85, quote.convertFee(100));
+  }
+
+  @Test
+  public void testQuotesDoNotCallTheProvider() {
+    clearInvocations(provider);
+    for (int i = 0; i < 100; i++) {
+      table.quote("EUR", "MXN", "USD");
+    }
+    verify(provider, never()).fetchRates();
+  }
+
+  @Test
+  public void testVersionOnlyChangesWhenTheRatesChange() {
+    long version = table.getSnapshot().getVersion();
+    table.refresh();
+    assertEquals(version, table.getSnapshot().getVersion());
+    provider.setRate("EUR", 1_100_000L);
+    table.refresh();
+    assertEquals(version + 1, table.getSnapshot().getVersion());
+    assertEquals(version + 1, table.quote("EUR", "USD", "USD").getVersion());
+    assertEquals(110, table.quote("EUR", "USD", "USD").convert(100));
+  }
+
+  @Test
+  public void testCrossRatesAreExact() {
+    provider.setRate("AAA", 123_456_789_123L);
+    provider.setRate("BBB", 7L);
+    table.refresh();
+    // 123_456_789_123 * 1_000_000 / 7 = 17_636_684_160_428_571.43, more digits than a double holds.
+    assertEquals(17_636_684_160_428_571L, table.getSnapshot().rate("AAA", "BBB"));
+    assertEquals(1_080_000L, table.getSnapshot().rate("EUR", "USD"));
+    assertEquals(850_394L, table.getSnapshot().rate("EUR", "GBP"));
+  }
+
+  @Test(expected = LedgerError.class)
+  public void testUnsupportedCurrenciesAreRejected() {
+    table.quote("XYZ", "USD", "USD");
+  }
+}
@@ -0,0 +1,140 @@
+package skipper_demo.services;
+
+import lombok.val;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class LedgerReconcilerTest {
+  private LedgerNode node;
+  private LedgerReconciler reconciler;
+
+  @Before
+  public void setUp() {
+    node = mock(LedgerNode.class);
+    when(node.getId()).thenReturn("node-0");
+    when(node.getAccounts()).thenReturn(new HashSet<>(Arrays.asList("a", "b")));
+    reconciler = new LedgerReconciler(new ShardedLedger(Collections.singletonList(node)), new ForkJoinPool(2));
+  }
+
+  @Test
+  public void testConsistentAccountsAreNotReported() {
+    givenAccount("a", 15, 10, deposit("t1", "a", 10), withdraw("t2", "a", 5));
+    givenAccount("b", 0, 0);
+    val report = reconciler.reconcile(false);
+    assertTrue(report.getDiscrepancies().isEmpty());
+    assertEquals(1, report.getAccountsChecked());
+    assertEquals(1, report.getAccountsSkipped());
+  }
+
+  @Test
+  public void testBalanceThatDoesNotMatchTheJournalIsReported() {
+    givenAccount("a", 20, 0, deposit("t1", "a", 10));
+    givenAccount("b", 0, 0);
+    val report = reconciler.reconcile(false);
+    assertEquals(1, report.getDiscrepancies().size());
+    assertEquals("a", report.getDiscrepancies().get(0).getAccount());
+    assertSame(report, reconciler.getLastReport());
+  }
+
+  @Test
+  public void testJournalEntriesThatDoNotBelongToTheAccountAreReported() {
+    givenAccount("a", 10, 0, deposit("t1", "b", 10));
+    givenAccount("b", 0, 0);
+    val report = reconciler.reconcile(false);
+    assertFalse(report.getDiscrepancies().isEmpty());
+  }
+
+  @Test
+  public void testRepeatedRunsOnlyLookAtNewEntries() {
+    givenAccount("a", 10, 0, deposit("t1", "a", 10));
+    givenAccount("b", 0, 0);
+    reconciler.reconcile(false);
+    // nothing changed
+    val second = reconciler.reconcile(false);
+    assertEquals(0, second.getAccountsChecked());
+    verify(node, times(1)).snapshot(eq("a"), eq(0));
+    // a new posting only requires looking at that posting
+    when(node.getJournalSize("a")).thenReturn(2);
+    when(node.snapshot("a", 1))
+        .thenReturn(
+            new Ledger.AccountSnapshot(
+                "a", 15, 0, 2, Collections.singletonList(deposit("t2", "a", 5))));
+    val third = reconciler.reconcile(false);
+    assertEquals(1, third.getAccountsChecked());
+    assertTrue(third.getDiscrepancies().isEmpty());
+  }
+
+  @Test
+  public void testFullRunChecksEveryAccountAgain() {
+    givenAccount("a", 10, 0, deposit("t1", "a", 10));
+    givenAccount("b", 0, 0);
+    reconciler.reconcile(false);
+    val full = reconciler.reconcile(true);
+    assertEquals(1, full.getAccountsChecked());
+    verify(node, times(2)).snapshot(eq("a"), eq(0));
+  }
+
+  @Test
+  public void testCompletedTransferWithAllItsPostingsIsVerifiedOnce() {
+    givenAccount("a", 0, 0);
+    givenAccount("b", 0, 0);
+    Ledger.Transaction debit = new Ledger.Transaction("a", "withdraw", 11);
+    Ledger.Transaction credit = new Ledger.Transaction("b", "deposit", 10);
+    when(node.getTransaction("t1")).thenReturn(debit);
+    when(node.getTransaction("t2")).thenReturn(credit);
+    Map<String, Ledger.Transaction> postings = new LinkedHashMap<>();
+    postings.put("t1", debit);
+    postings.put("t2", credit);
+    reconciler.expectTransfer("transfer-1", postings);
+    val report = reconciler.reconcile(false);
+    assertEquals(1, report.getTransfersChecked());
+    assertTrue(report.getTransferDiscrepancies().isEmpty());
+    // verified transfers are not checked again
+    assertEquals(0, reconciler.reconcile(false).getTransfersChecked());
+  }
+
+  @Test
+  public void testMissingOrDifferentPostingsAreReportedUntilFixed() {
+    givenAccount("a", 0, 0);
+    givenAccount("b", 0, 0);
+    when(node.getTransaction("t1")).thenReturn(new Ledger.Transaction("a", "withdraw", 5));
+    Map<String, Ledger.Transaction> postings = new LinkedHashMap<>();
+    postings.put("t1", new Ledger.Transaction("a", "withdraw", 11));
+    postings.put("t2", new Ledger.Transaction("b", "deposit", 10));
+    reconciler.expectTransfer("transfer-1", postings);
+    val report = reconciler.reconcile(false);
+    assertEquals(2, report.getTransferDiscrepancies().size());
+    assertEquals("transfer-1", report.getTransferDiscrepancies().get(0).getWorkflowId());
+    assertEquals("t1", report.getTransferDiscrepancies().get(0).getTransactionId());
+    assertEquals("t2", report.getTransferDiscrepancies().get(1).getTransactionId());
+    assertEquals(2, reconciler.reconcile(false).getTransferDiscrepancies().size());
+  }
+
+  private void givenAccount(
+      String account, int balance, int openingBalance, Ledger.JournalEntry... entries) {
+    when(node.getJournalSize(account)).thenReturn(entries.length);
+    when(node.snapshot(account, 0))
+        .thenReturn(
+            new Ledger.AccountSnapshot(
+                account, balance, openingBalance, entries.length, Arrays.asList(entries)));
+  }
+
+  private static Ledger.JournalEntry deposit(String id, String account, int amount) {
+    return new Ledger.JournalEntry(id, new Ledger.Transaction(account, "deposit", amount));
+  }
+
+  private static Ledger.JournalEntry withdraw(String id, String account, int amount) {
+    return new Ledger.JournalEntry(id, new Ledger.Transaction(account, "withdraw", amount));
+  }
+}
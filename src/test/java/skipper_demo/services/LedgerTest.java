@@ -0,0 +1,87 @@
+package skipper_demo.services;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class LedgerTest {
+  private Ledger ledger;
+
+  @Before
+  public void setUp() {
+    ledger = new Ledger(Collections.singletonMap("system", 1_000_000), false);
+  }
+
+  @Test
+  public void testSnapshotSpanningSeveralChunks() {
+    int postings = Ledger.SNAPSHOT_CHUNK_SIZE * 3 + 7;
+    for (int i = 0; i < postings; i++) {
+      ledger.deposit("system", 1, "fee", "fee-" + i);
+    }
+    Ledger.AccountSnapshot snapshot = ledger.snapshot("system", 0);
+    assertEquals(postings, snapshot.getJournalSize());
+    assertEquals(postings, snapshot.getNewEntries().size());
+    assertEquals("fee-0", snapshot.getNewEntries().get(0).getTransactionId());
+    assertEquals("fee-" + (postings - 1), snapshot.getNewEntries().get(postings - 1).getTransactionId());
+    // Only the entries after `fromEntry` are copied
+    assertEquals(7, ledger.snapshot("system", postings - 7).getNewEntries().size());
+    assertTrue(ledger.snapshot("system", postings).getNewEntries().isEmpty());
+  }
+
+  @Test
+  public void testSnapshotsAreConsistentWhileWritersAreRunning() throws Exception {
+    for (int i = 0; i < Ledger.SNAPSHOT_CHUNK_SIZE * 5; i++) {
+      ledger.deposit("system", 1, "fee", "initial-" + i);
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    AtomicBoolean stop = new AtomicBoolean(false);
+    List<Future<Integer>> writers = new ArrayList<>();
+    try {
+      for (int w = 0; w < 4; w++) {
+        int writer = w;
+        writers.add(
+            executor.submit(
+                () -> {
+                  int writes = 0;
+                  while (!stop.get() && writes < 20_000) {
+                    String id = String.format("w%d-%d", writer, writes++);
+                    if (writes % 3 == 0) {
+                      ledger.withdraw("system", 1, "refund", id);
+                    } else {
+                      ledger.deposit("system", 2, "fee", id);
+                    }
+                  }
+                  return writes;
+                }));
+      }
+      for (int i = 0; i < 20; i++) {
+        // Every snapshot has to add up, even though the journal keeps growing while it is being copied
+        Ledger.AccountSnapshot snapshot = ledger.snapshot("system", 0);
+        assertEquals(snapshot.getJournalSize(), snapshot.getNewEntries().size());
+        long sum = 0;
+        for (Ledger.JournalEntry entry : snapshot.getNewEntries()) {
+          assertNotNull(entry.getTransaction());
+          sum += entry.getTransaction().getSignedAmount();
+        }
+        assertEquals(snapshot.getBalance(), snapshot.getOpeningBalance() + sum);
+      }
+    } finally {
+      stop.set(true);
+      executor.shutdown();
+      assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+    for (Future<Integer> writer : writers) {
+      assertTrue(writer.get() > 0);
+    }
+  }
+}
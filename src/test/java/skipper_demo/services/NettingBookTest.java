@@ -0,0 +1,88 @@
+package skipper_demo.services;
+
+import lombok.val;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class NettingBookTest {
+  private NettingBook book;
+
+  @Before
+  public void setUp() {
+    book = new NettingBook();
+  }
+
+  @Test
+  public void testTransfersBetweenTheSamePairAreNetted() {
+    book.enqueue("t1", "a", "b", 10, 1);
+    book.enqueue("t2", "b", "a", 4, 0);
+    book.enqueue("t3", "a", "b", 5, 1);
+    val batch = book.drain("batch-1");
+    assertEquals(1, batch.getPositions().size());
+    val position = batch.getPositions().get(0);
+    assertEquals("a", position.getFirstAccount());
+    // a pays 10 + 1 + 5 + 1 and receives 4
+    assertEquals(-13, position.getFirstDelta());
+    // b receives 10 + 5 and pays 4
+    assertEquals(11, position.getSecondDelta());
+    assertEquals(2, position.getFees());
+    assertEquals(0, position.getFirstDelta() + position.getSecondDelta() + position.getFees());
+    assertEquals(Arrays.asList("t1", "t2", "t3"), position.getTransferIds());
+  }
+
+  @Test
+  public void testEachPairGetsItsOwnPosition() {
+    book.enqueue("t1", "a", "b", 10, 1);
+    book.enqueue("t2", "a", "c", 10, 1);
+    assertEquals(2, book.drain("batch-1").getPositions().size());
+  }
+
+  @Test
+  public void testEnqueueIsIdempotent() {
+    book.enqueue("t1", "a", "b", 10, 1);
+    book.enqueue("t1", "a", "b", 10, 1);
+    assertEquals(-11, book.drain("batch-1").getPositions().get(0).getFirstDelta());
+  }
+
+  @Test
+  public void testDrainIsIdempotentAndEmptiesTheBook() {
+    book.enqueue("t1", "a", "b", 10, 1);
+    val batch = book.drain("batch-1");
+    assertSame(batch, book.drain("batch-1"));
+    assertEquals(0, book.getPendingTransfers());
+    assertTrue(book.drain("batch-2").getPositions().isEmpty());
+  }
+
+  @Test
+  public void testCancelOnlyRemovesPendingTransfers() {
+    book.enqueue("t1", "a", "b", 10, 1);
+    book.enqueue("t2", "a", "b", 5, 1);
+    assertEquals(NettingBook.CancelOutcome.CANCELLED, book.cancel("t1"));
+    val position = book.drain("batch-1").getPositions().get(0);
+    assertEquals(-6, position.getFirstDelta());
+    assertEquals(Arrays.asList("t2"), position.getTransferIds());
+    assertEquals(NettingBook.CancelOutcome.ALREADY_DRAINED, book.cancel("t2"));
+    assertEquals(NettingBook.CancelOutcome.UNKNOWN, book.cancel("unknown"));
+  }
+
+  @Test
+  public void testDrainedTransfersAreNotEnqueuedAgain() {
+    assertTrue(book.enqueue("t1", "a", "b", 10, 1));
+    val batch = book.drain("batch-1");
+    // e.g. the enqueue operation is retried after its batch was drained
+    assertFalse(book.enqueue("t1", "a", "b", 10, 1));
+    assertEquals(0, book.getPendingTransfers());
+    assertTrue(book.drain("batch-2").getPositions().isEmpty());
+    assertSame(batch, book.getDrainedBatch("batch-1"));
+    assertNull(book.getDrainedBatch("batch-3"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTransfersToTheSameAccountAreRejected() {
+    book.enqueue("t1", "a", "a", 10, 1);
+  }
+}
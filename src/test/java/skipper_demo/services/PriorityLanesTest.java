@@ -0,0 +1,99 @@
+package skipper_demo.services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PriorityLanesTest {
+  private PriorityLanes lanes;
+  private CountDownLatch release;
+
+  @Before
+  public void setUp() {
+    Map<PriorityLanes.Lane, PriorityLanes.Limits> limits = new EnumMap<>(PriorityLanes.Lane.class);
+    for (PriorityLanes.Lane lane : PriorityLanes.Lane.values()) {
+      limits.put(lane, new PriorityLanes.Limits(1, 1));
+    }
+    lanes = new PriorityLanes(limits, 100);
+    release = new CountDownLatch(1);
+  }
+
+  @After
+  public void tearDown() {
+    release.countDown();
+    lanes.shutdown();
+  }
+
+  @Test
+  public void testTransfersAreAssignedToLanesByAmount() {
+    assertEquals(PriorityLanes.Lane.INSTANT, lanes.laneForTransfer(99));
+    assertEquals(PriorityLanes.Lane.APPROVAL, lanes.laneForTransfer(100));
+  }
+
+  @Test
+  public void testFullLaneDoesNotAffectOtherLanes() throws Exception {
+    // one task running and one queued fill up the vending lane
+    lanes.submit(PriorityLanes.Lane.VENDING, this::block);
+    lanes.submit(PriorityLanes.Lane.VENDING, this::block);
+    assertThrows(
+        LaneRejectedException.class, () -> lanes.submit(PriorityLanes.Lane.VENDING, () -> "rejected"));
+    // but instant transfers still go through
+    assertEquals("ok", lanes.submit(PriorityLanes.Lane.INSTANT, () -> "ok").get(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testOperationsAreRejectedWhenTheLaneIsBusy() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    lanes.submit(
+        PriorityLanes.Lane.APPROVAL,
+        () ->
+            lanes.call(
+                PriorityLanes.Lane.APPROVAL,
+                () -> {
+                  started.countDown();
+                  return block();
+                }));
+    assertTrue(started.await(1, TimeUnit.SECONDS));
+    assertThrows(
+        LaneRejectedException.class, () -> lanes.call(PriorityLanes.Lane.APPROVAL, () -> "rejected"));
+    assertEquals("ok", lanes.call(PriorityLanes.Lane.INSTANT, () -> "ok"));
+  }
+
+  @Test
+  public void testOperationsNeverWaitForASlot() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    lanes.submit(
+        PriorityLanes.Lane.VENDING,
+        () ->
+            lanes.call(
+                PriorityLanes.Lane.VENDING,
+                () -> {
+                  started.countDown();
+                  return block();
+                }));
+    assertTrue(started.await(1, TimeUnit.SECONDS));
+    // The calling (engine) thread is given back right away, rather than waiting for the running operation to finish
+    long start = System.nanoTime();
+    for (int i = 0; i < 100; i++) {
+      assertThrows(
+          LaneRejectedException.class, () -> lanes.call(PriorityLanes.Lane.VENDING, () -> "rejected"));
+    }
+    assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+  }
+
+  private String block() {
+    try {
+      release.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return "done";
+  }
+}
@@ -0,0 +1,185 @@
+package skipper_demo.services;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class ShardedLedgerTest {
+  private List<LedgerNode> nodes;
+  private ShardedLedger ledger;
+
+  @Before
+  public void setUp() {
+    nodes = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      LedgerNode node = mock(LedgerNode.class);
+      when(node.getId()).thenReturn("node-" + i);
+      nodes.add(node);
+    }
+    ledger = new ShardedLedger(nodes);
+  }
+
+  @Test
+  public void testAccountIsAlwaysRoutedToTheSameNode() {
+    LedgerNode owner = ledger.nodeFor("paola");
+    for (int i = 0; i < 10; i++) {
+      assertSame(owner, ledger.nodeFor("paola"));
+    }
+    ledger.deposit("paola", 10, "concept", "tx-1");
+    ledger.withdraw("paola", 5, "concept", "tx-2");
+    verify(owner, times(1)).deposit(eq("paola"), eq(10), anyString(), eq("tx-1"));
+    verify(owner, times(1)).withdraw(eq("paola"), eq(5), anyString(), eq("tx-2"));
+    for (LedgerNode node : nodes) {
+      if (node != owner) {
+        verify(node, never()).deposit(any(), any(), any(), any());
+        verify(node, never()).withdraw(any(), any(), any(), any());
+      }
+    }
+  }
+
+  @Test
+  public void testAccountsAreSpreadAcrossAllNodes() {
+    Map<LedgerNode, Integer> counts = new HashMap<>();
+    for (int i = 0; i < 1000; i++) {
+      counts.merge(ledger.nodeFor("account-" + i), 1, Integer::sum);
+    }
+    assertEquals(nodes.size(), counts.size());
+    for (int count : counts.values()) {
+      assertTrue(count > 100);
+    }
+  }
+
+  @Test
+  public void testAddingANodeOnlyMovesAFractionOfTheAccounts() {
+    Map<String, LedgerNode> nodesById = new LinkedHashMap<>();
+    for (LedgerNode node : nodes) {
+      nodesById.put(node.getId(), node);
+    }
+    ConsistentHashRing<LedgerNode> before = new ConsistentHashRing<>(nodesById);
+    LedgerNode extra = mock(LedgerNode.class);
+    nodesById.put("node-4", extra);
+    ConsistentHashRing<LedgerNode> after = new ConsistentHashRing<>(nodesById);
+    int moved = 0;
+    for (int i = 0; i < 1000; i++) {
+      LedgerNode newOwner = after.nodeFor("account-" + i);
+      if (newOwner != before.nodeFor("account-" + i)) {
+        assertSame(extra, newOwner);
+        moved++;
+      }
+    }
+    assertTrue(moved > 0);
+    assertTrue(moved < 400);
+  }
+
+  @Test
+  public void testGetTransactionLooksUpEveryNode() {
+    Ledger.Transaction transaction = new Ledger.Transaction("paola", "deposit", 10);
+    when(nodes.get(2).getTransaction("tx-1")).thenReturn(transaction);
+    assertSame(transaction, ledger.getTransaction("tx-1"));
+    assertNull(ledger.getTransaction("unknown"));
+  }
+
+  @Test
+  public void testBalancesAreMergedFromAllNodes() {
+    Map<String, Integer> first = new HashMap<>();
+    first.put("a", 1);
+    Map<String, Integer> second = new HashMap<>();
+    second.put("b", 2);
+    when(nodes.get(0).getBalances()).thenReturn(first);
+    when(nodes.get(1).getBalances()).thenReturn(second);
+    Map<String, Integer> balances = ledger.getBalances();
+    assertEquals(new HashSet<>(Arrays.asList("a", "b")), balances.keySet());
+  }
+
+  @Test
+  public void testLocalLedgerOpensSystemAccountOnlyOnItsOwner() {
+    ShardedLedger local = ShardedLedger.local(3);
+    Set<String> nodesWithSystem = new HashSet<>();
+    for (LedgerNode node : local.getNodes()) {
+      if (node.getBalances().containsKey(ShardedLedger.SYSTEM_ACCOUNT)) {
+        nodesWithSystem.add(node.getId());
+      }
+    }
+    assertEquals(1, nodesWithSystem.size());
+    assertEquals(
+        Integer.valueOf(ShardedLedger.SYSTEM_OPENING_BALANCE),
+        local.getBalances().get(ShardedLedger.SYSTEM_ACCOUNT));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDuplicateNodeIdsAreRejected() {
+    new ShardedLedger(Arrays.asList(nodes.get(0), nodes.get(0)));
+  }
+
+  @Test
+  public void testCrossShardTransferAndRollbackOverLocalTransport() {
+    ShardedLedger local = ShardedLedger.local(4);
+    String sender = "sender";
+    String receiver = accountOnAnotherNode(local, sender);
+    local.openAccount(sender, 100);
+    local.openAccount(receiver, 0);
+    // A transfer is a withdraw on the sender's shard followed by a deposit on the receiver's shard
+    String debitId = withRetries(() -> local.withdraw(sender, 30, "transfer sent", "tx-debit"));
+    String creditId = withRetries(() -> local.deposit(receiver, 30, "transfer received", "tx-credit"));
+    assertEquals(Integer.valueOf(70), local.getBalances().get(sender));
+    assertEquals(Integer.valueOf(30), local.getBalances().get(receiver));
+    // The compensations look up the original postings on whichever shard has them, just like the operations do
+    Ledger.Transaction debit = local.getTransaction(debitId);
+    Ledger.Transaction credit = local.getTransaction(creditId);
+    assertEquals(sender, debit.getUserId());
+    assertEquals(receiver, credit.getUserId());
+    withRetries(() -> local.deposit(debit.getUserId(), debit.getAmount(), "rollback", "tx-debit-rollback"));
+    withRetries(() -> local.withdraw(credit.getUserId(), credit.getAmount(), "rollback", "tx-credit-rollback"));
+    assertEquals(Integer.valueOf(100), local.getBalances().get(sender));
+    assertEquals(Integer.valueOf(0), local.getBalances().get(receiver));
+    // Only the owning shards saw the postings
+    for (LedgerNode node : local.getNodes()) {
+      if (node != local.nodeFor(sender)) {
+        assertEquals(0, node.getJournalSize(sender));
+      }
+      if (node != local.nodeFor(receiver)) {
+        assertEquals(0, node.getJournalSize(receiver));
+      }
+    }
+    assertEquals(2, local.nodeFor(sender).getJournalSize(sender));
+    assertEquals(2, local.nodeFor(receiver).getJournalSize(receiver));
+  }
+
+  private static String accountOnAnotherNode(ShardedLedger ledger, String account) {
+    for (int i = 0; ; i++) {
+      String candidate = "receiver-" + i;
+      if (ledger.nodeFor(candidate) != ledger.nodeFor(account)) {
+        return candidate;
+      }
+    }
+  }
+
+  // The ledger fails randomly to simulate transient errors, which skipper would retry. The failures happen before
+  // anything is written, so retrying with the same token is safe.
+  private static String withRetries(Supplier<String> posting) {
+    RuntimeException lastError = null;
+    for (int i = 0; i < 20; i++) {
+      try {
+        return posting.get();
+      } catch (LedgerError e) {
+        throw e;
+      } catch (RuntimeException e) {
+        lastError = e;
+      }
+    }
+    throw lastError;
+  }
+}
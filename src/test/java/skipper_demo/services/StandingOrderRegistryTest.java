@@ -0,0 +1,110 @@
+package skipper_demo.services;
+
+import io.github.rgamba.skipper.models.WorkflowInstance;
+import org.junit.Before;
+import org.junit.Test;
+import skipper_demo.workflows.RecurringTransferWorkflow;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class StandingOrderRegistryTest {
+  private Map<String, WorkflowInstance> store;
+  private AtomicInteger lookups;
+  private StandingOrderRegistry registry;
+
+  @Before
+  public void setUp() {
+    store = new HashMap<>();
+    lookups = new AtomicInteger();
+    registry =
+        new StandingOrderRegistry(
+            id -> {
+              lookups.incrementAndGet();
+              return store.get(id);
+            });
+  }
+
+  @Test
+  public void testCurrentInstanceIsFoundInTheStoreAfterARestart() {
+    for (int generation = 0; generation <= 37; generation++) {
+      addGeneration("order", generation);
+    }
+    // A new registry knows nothing about the order, as after a restart
+    assertSame(
+        store.get(RecurringTransferWorkflow.instanceId("order", 37)),
+        registry.getCurrentInstance("order").get());
+    assertTrue(lookups.get() < 20);
+    // Once found, the next lookup starts from the known generation
+    lookups.set(0);
+    addGeneration("order", 38);
+    assertSame(
+        store.get(RecurringTransferWorkflow.instanceId("order", 38)),
+        registry.getCurrentInstance("order").get());
+    assertTrue(lookups.get() <= 3);
+  }
+
+  @Test
+  public void testUnknownOrderIsNotFound() {
+    assertFalse(registry.getCurrentInstance("unknown").isPresent());
+    assertFalse(registry.cancel("unknown").isPresent());
+    assertFalse(registry.isCancelled("unknown"));
+  }
+
+  @Test
+  public void testGenerationThatIsNotCreatedYetFallsBackToTheLatestExisting() {
+    addGeneration("order", 0);
+    addGeneration("order", 1);
+    registry.advance("order", 2);
+    assertSame(
+        store.get(RecurringTransferWorkflow.instanceId("order", 1)),
+        registry.getCurrentInstance("order").get());
+  }
+
+  @Test
+  public void testCancelMarksTheOrderAndReturnsItsCurrentInstance() {
+    addGeneration("order", 0);
+    addGeneration("order", 1);
+    assertSame(
+        store.get(RecurringTransferWorkflow.instanceId("order", 1)), registry.cancel("order").get());
+    assertTrue(registry.isCancelled("order"));
+    // advancing keeps the cancellation, so the next generation gets signaled too
+    registry.advance("order", 2);
+    assertTrue(registry.isCancelled("order"));
+    registry.remove("order");
+    assertFalse(registry.isCancelled("order"));
+  }
+
+  @Test
+  public void testUnknownIdErrorsAreMissingInstances() {
+    StandingOrderRegistry registry =
+        new StandingOrderRegistry(
+            id -> {
+              throw new NoSuchElementException("unknown workflow instance");
+            });
+    assertFalse(registry.getCurrentInstance("order").isPresent());
+    assertFalse(registry.cancel("order").isPresent());
+  }
+
+  @Test
+  public void testStoreFailuresArePropagated() {
+    IllegalStateException failure = new IllegalStateException("store is unreachable");
+    StandingOrderRegistry registry =
+        new StandingOrderRegistry(
+            id -> {
+              throw failure;
+            });
+    assertSame(failure, assertThrows(IllegalStateException.class, () -> registry.getCurrentInstance("order")));
+    assertSame(failure, assertThrows(IllegalStateException.class, () -> registry.cancel("order")));
+    assertFalse(registry.isCancelled("order"));
+  }
+
+  private void addGeneration(String standingOrderId, int generation) {
+    store.put(RecurringTransferWorkflow.instanceId(standingOrderId, generation), mock(WorkflowInstance.class));
+  }
+}
@@ -0,0 +1,106 @@
+package skipper_demo.workflowHandlers;
+
+import io.github.rgamba.skipper.client.SkipperClient;
+import io.github.rgamba.skipper.models.WorkflowInstance;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.verification.VerificationMode;
+import skipper_demo.workflows.NettingSettlementWorkflow;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class NettingSettlementCallbackHandlerTest {
+  private SkipperClient client;
+  private Map<String, WorkflowInstance> store;
+
+  @Before
+  public void setUp() {
+    client = mock(SkipperClient.class);
+    store = new HashMap<>();
+    when(client.getWorkflowInstance(anyString()))
+        .thenAnswer(
+            invocation -> {
+              WorkflowInstance instance = store.get(invocation.<String>getArgument(0));
+              if (instance == null) {
+                throw new NoSuchElementException("unknown workflow instance");
+              }
+              return instance;
+            });
+  }
+
+  @Test
+  public void testResumeStartsTheFirstBatchWhenThereIsNone() {
+    NettingSettlementCallbackHandler.resume(client, "netting", 10);
+    verifyBatchCreated(times(1), 0);
+  }
+
+  @Test
+  public void testAlreadyScheduledBatchIsNotAnError() {
+    store.put(NettingSettlementWorkflow.instanceId("netting", 3), mock(WorkflowInstance.class));
+    when(client.createWorkflowInstance(
+            eq(NettingSettlementWorkflow.class),
+            eq(NettingSettlementWorkflow.instanceId("netting", 3)),
+            eq(NettingSettlementCallbackHandler.class),
+            any(),
+            any(),
+            any()))
+        .thenThrow(new IllegalStateException("duplicate id"));
+    NettingSettlementCallbackHandler.startNextBatch(client, "netting", 3, 10);
+  }
+
+  @Test
+  public void testCreationErrorIsRethrownWhenTheBatchDoesNotExist() {
+    IllegalStateException error = new IllegalStateException("store unavailable");
+    when(client.createWorkflowInstance(
+            eq(NettingSettlementWorkflow.class),
+            eq(NettingSettlementWorkflow.instanceId("netting", 3)),
+            eq(NettingSettlementCallbackHandler.class),
+            any(),
+            any(),
+            any()))
+        .thenThrow(error);
+    assertSame(
+        error,
+        assertThrows(
+            IllegalStateException.class,
+            () -> NettingSettlementCallbackHandler.startNextBatch(client, "netting", 3, 10)));
+  }
+
+  @Test
+  public void testCreationErrorIsRethrownWhenTheStoreFails() {
+    IllegalStateException error = new IllegalStateException("store unavailable");
+    reset(client);
+    when(client.createWorkflowInstance(
+            eq(NettingSettlementWorkflow.class),
+            eq(NettingSettlementWorkflow.instanceId("netting", 3)),
+            eq(NettingSettlementCallbackHandler.class),
+            any(),
+            any(),
+            any()))
+        .thenThrow(error);
+    when(client.getWorkflowInstance(anyString())).thenThrow(new IllegalStateException("lookup failed"));
+    IllegalStateException thrown =
+        assertThrows(
+            IllegalStateException.class,
+            () -> NettingSettlementCallbackHandler.startNextBatch(client, "netting", 3, 10));
+    assertSame(error, thrown);
+    assertEquals(1, thrown.getSuppressed().length);
+  }
+
+  private void verifyBatchCreated(VerificationMode mode, int generation) {
+    verify(client, mode)
+        .createWorkflowInstance(
+            eq(NettingSettlementWorkflow.class),
+            eq(NettingSettlementWorkflow.instanceId("netting", generation)),
+            eq(NettingSettlementCallbackHandler.class),
+            eq("netting"),
+            eq(generation),
+            eq(10L));
+  }
+}
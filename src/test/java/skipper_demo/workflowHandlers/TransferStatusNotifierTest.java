@@ -0,0 +1,199 @@
+package skipper_demo.workflowHandlers;
+
+import io.github.rgamba.skipper.models.WorkflowInstance;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.TimeoutHandler;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class TransferStatusNotifierTest {
+  private Map<String, WorkflowInstance> store;
+  private TransferStatusNotifier notifier;
+
+  @Before
+  public void setUp() {
+    store = new HashMap<>();
+    notifier = new TransferStatusNotifier(store::get);
+  }
+
+  @Test
+  public void testUnknownTransfersAreSkippedAndRemembered() {
+    store.put("t2", instance("t2"));
+    AtomicInteger lookups = new AtomicInteger();
+    TransferStatusNotifier notifier =
+        new TransferStatusNotifier(
+            id -> {
+              lookups.incrementAndGet();
+              WorkflowInstance instance = store.get(id);
+              if (instance == null) {
+                throw new NoSuchElementException("unknown workflow instance " + id);
+              }
+              return instance;
+            });
+    AsyncResponse first = mock(AsyncResponse.class);
+    notifier.subscribe(Arrays.asList("t1", "t2"), null, 0, 30, first);
+    List<TransferStatusNotifier.TransferStatusEvent> events = resumedWith(first);
+    assertEquals(1, events.size());
+    assertEquals("t2", events.get(0).getId());
+    assertEquals(2, lookups.get());
+    // Neither id goes to the store again
+    AsyncResponse second = mock(AsyncResponse.class);
+    TransferStatusNotifier.TransferStatusEvent seen = events.get(0);
+    notifier.subscribe(Arrays.asList("t1", "t2"), seen.getEpoch(), seen.getVersion(), 30, second);
+    assertEquals(2, lookups.get());
+    verify(second, never()).resume(any(Object.class));
+    // A transfer that shows up later is still delivered
+    notifier.publish(instance("t1"));
+    assertEquals("t1", resumedWith(second).get(0).getId());
+  }
+
+  @Test
+  public void testStoreFailuresArePropagated() {
+    IllegalStateException failure = new IllegalStateException("store is unreachable");
+    TransferStatusNotifier notifier =
+        new TransferStatusNotifier(
+            id -> {
+              throw failure;
+            });
+    AsyncResponse response = mock(AsyncResponse.class);
+    assertSame(
+        failure,
+        assertThrows(
+            IllegalStateException.class,
+            () -> notifier.subscribe(Collections.singleton("t1"), null, 0, 30, response)));
+    // The failed request is no longer subscribed
+    notifier.publish(instance("t1"));
+    verify(response, never()).resume(any(Object.class));
+  }
+
+  @Test
+  public void testWaitingClientIsResumedWhenTheTransferChanges() {
+    AsyncResponse response = mock(AsyncResponse.class);
+    notifier.subscribe(Collections.singleton("t1"), null, 0, 30, response);
+    verify(response, never()).resume(any(Object.class));
+    WorkflowInstance instance = instance("t1");
+    notifier.publish(instance);
+    List<TransferStatusNotifier.TransferStatusEvent> events = resumedWith(response);
+    assertEquals(1, events.size());
+    assertSame(instance, events.get(0).getWorkflowInstance());
+  }
+
+  @Test
+  public void testClientThatIsUpToDateWaitsForTheNextChange() {
+    notifier.publish(instance("t1"));
+    AsyncResponse first = mock(AsyncResponse.class);
+    notifier.subscribe(Collections.singleton("t1"), null, 0, 30, first);
+    TransferStatusNotifier.TransferStatusEvent seen = resumedWith(first).get(0);
+    AsyncResponse second = mock(AsyncResponse.class);
+    notifier.subscribe(Collections.singleton("t1"), seen.getEpoch(), seen.getVersion(), 30, second);
+    verify(second, never()).resume(any(Object.class));
+    notifier.publish(instance("t1"));
+    assertTrue(resumedWith(second).get(0).getVersion() > seen.getVersion());
+  }
+
+  @Test
+  public void testTimedOutWaitIsResumedWithNoEvents() {
+    AsyncResponse response = mock(AsyncResponse.class);
+    notifier.subscribe(Collections.singleton("t1"), null, 0, 30, response);
+    ArgumentCaptor<TimeoutHandler> timeoutHandler = ArgumentCaptor.forClass(TimeoutHandler.class);
+    verify(response).setTimeoutHandler(timeoutHandler.capture());
+    timeoutHandler.getValue().handleTimeout(response);
+    assertTrue(resumedWith(response).isEmpty());
+    // an update after the timeout doesn't resume the response again
+    notifier.publish(instance("t1"));
+    verify(response, times(1)).resume(any(Object.class));
+  }
+
+  @Test
+  public void testMultiplexedClientIsResumedOnceWithTheFirstChange() {
+    AsyncResponse response = mock(AsyncResponse.class);
+    notifier.subscribe(Arrays.asList("t1", "t2"), null, 0, 30, response);
+    notifier.publish(instance("t2"));
+    notifier.publish(instance("t1"));
+    List<TransferStatusNotifier.TransferStatusEvent> events = resumedWith(response);
+    assertEquals(1, events.size());
+    assertEquals("t2", events.get(0).getId());
+  }
+
+  @Test
+  public void testMultiplexedClientGetsEveryTransferThatChanged() {
+    notifier.publish(instance("t1"));
+    notifier.publish(instance("t2"));
+    AsyncResponse response = mock(AsyncResponse.class);
+    notifier.subscribe(Arrays.asList("t1", "t2", "t3"), null, 0, 30, response);
+    assertEquals(2, resumedWith(response).size());
+  }
+
+  @Test
+  public void testVersionFromAnotherEpochIsIgnored() {
+    // e.g. the client got its last event from a node that has since restarted
+    store.put("t1", instance("t1"));
+    AsyncResponse response = mock(AsyncResponse.class);
+    notifier.subscribe(Collections.singleton("t1"), "previous-epoch", 1000, 30, response);
+    assertSame(store.get("t1"), resumedWith(response).get(0).getWorkflowInstance());
+  }
+
+  @Test
+  public void testStoreIsReadWhenTheTransferIsNotCached() {
+    notifier.publish(instance("t1"));
+    AsyncResponse first = mock(AsyncResponse.class);
+    notifier.subscribe(Collections.singleton("t1"), null, 0, 30, first);
+    TransferStatusNotifier.TransferStatusEvent seen = resumedWith(first).get(0);
+    // t2 was last updated long ago (or by another process), so it's only in the store
+    store.put("t2", instance("t2"));
+    AsyncResponse second = mock(AsyncResponse.class);
+    notifier.subscribe(Collections.singleton("t2"), seen.getEpoch(), seen.getVersion(), 30, second);
+    assertSame(store.get("t2"), resumedWith(second).get(0).getWorkflowInstance());
+  }
+
+  @Test
+  public void testUpdatePublishedWhileSubscribingIsNotLost() throws Exception {
+    for (int i = 0; i < 200; i++) {
+      String id = "t" + i;
+      AsyncResponse response = mock(AsyncResponse.class);
+      CountDownLatch start = new CountDownLatch(1);
+      Thread publisher =
+          new Thread(
+              () -> {
+                try {
+                  start.await();
+                } catch (InterruptedException e) {
+                  throw new RuntimeException(e);
+                }
+                notifier.publish(instance(id));
+              });
+      publisher.start();
+      start.countDown();
+      notifier.subscribe(Collections.singleton(id), null, 0, 30, response);
+      publisher.join();
+      verify(response, times(1)).resume(any(Object.class));
+    }
+  }
+
+  private static WorkflowInstance instance(String id) {
+    WorkflowInstance instance = mock(WorkflowInstance.class);
+    when(instance.getId()).thenReturn(id);
+    return instance;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<TransferStatusNotifier.TransferStatusEvent> resumedWith(AsyncResponse response) {
+    ArgumentCaptor<Object> resumed = ArgumentCaptor.forClass(Object.class);
+    verify(response, times(1)).resume(resumed.capture());
+    return (List<TransferStatusNotifier.TransferStatusEvent>) resumed.getValue();
+  }
+}
@@ -0,0 +1,67 @@
+package skipper_demo.workflows;
+
+import org.junit.Test;
+
+import java.time.Duration;
+
+import static org.junit.Assert.*;
+
+public class DecorrelatedJitterRetryStrategyTest {
+  private final DecorrelatedJitterRetryStrategy strategy =
+      DecorrelatedJitterRetryStrategy.builder()
+          .baseDelay(Duration.ofMillis(100))
+          .maxDelay(Duration.ofSeconds(2))
+          .maxRetries(5)
+          .build();
+
+  @Test
+  public void testDelaysAreWithinTheGrowingWindow() {
+    for (int i = 0; i < 1000; i++) {
+      long first = strategy.getNextRetryDelay(0).get().toMillis();
+      assertTrue(first >= 100 && first <= 300);
+      long third = strategy.getNextRetryDelay(2).get().toMillis();
+      assertTrue(third >= 100 && third <= 2000);
+    }
+  }
+
+  @Test
+  public void testDelaysAreCappedAtMaxDelay() {
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(strategy.getNextRetryDelay(4).get().toMillis() <= 2000);
+    }
+  }
+
+  @Test
+  public void testDelaysAreSpreadOut() {
+    long min = Long.MAX_VALUE;
+    long max = Long.MIN_VALUE;
+    for (int i = 0; i < 1000; i++) {
+      long delay = strategy.getNextRetryDelay(1).get().toMillis();
+      min = Math.min(min, delay);
+      max = Math.max(max, delay);
+    }
+    assertTrue(max - min > 300);
+  }
+
+  @Test
+  public void testNoMoreRetriesAfterMaxRetries() {
+    assertFalse(strategy.getNextRetryDelay(5).isPresent());
+  }
+
+  @Test
+  public void testLowerBoundGrowsWithTheRetries() {
+    for (int i = 0; i < 1000; i++) {
+      // the window of the second retry is [300, 900]
+      long second = strategy.getNextRetryDelay(1).get().toMillis();
+      assertTrue(second >= 300 && second <= 900);
+      // capped windows are [maxDelay / 3, maxDelay]
+      assertTrue(strategy.getNextRetryDelay(4).get().toMillis() >= 666);
+    }
+  }
+
+  @Test
+  public void testMinTotalDelayIsTheSumOfTheLowerBounds() {
+    // 100 + 300 + 666 + 666 + 666
+    assertEquals(Duration.ofMillis(2398), strategy.minTotalDelay());
+  }
+}
@@ -0,0 +1,77 @@
+package skipper_demo.workflows;
+
+import io.github.rgamba.skipper.testUtils.WorkflowTest;
+import lombok.val;
+import org.junit.Before;
+import org.junit.Test;
+import skipper_demo.operations.NettingOperations;
+import skipper_demo.services.NettingBook;
+
+import java.time.Duration;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class NettedTransferWorkflowTest extends WorkflowTest {
+  private NettedTransferWorkflow nettedTransferWorkflow;
+  private NettingOperations mockOperations;
+
+  @Before
+  public void setUp() {
+    super.setUp();
+    mockOperations = mock(NettingOperations.class);
+    nettedTransferWorkflow = new NettedTransferWorkflow();
+    assertWorkflowIsValid(nettedTransferWorkflow);
+    mockOperationField(nettedTransferWorkflow, "nettingOperations", mockOperations);
+  }
+
+  @Test
+  public void testTransferCompletesWithTheSettlementResult() {
+    when(mockOperations.enqueue(any(), any(), any(), anyInt(), anyInt())).thenReturn(true);
+    // the transfer is enqueued in the netting book and waits for the settlement
+    assertWorkflowIsInWaitingState(() -> nettedTransferWorkflow.transfer("t1", "a", "b", 10));
+    verify(mockOperations, times(1)).enqueue(eq("t1"), eq("a"), eq("b"), eq(10), eq(1));
+    nettedTransferWorkflow.settled(new TransferWorkflow.TransferResult(true, "settled"));
+    val result = nettedTransferWorkflow.transfer("t1", "a", "b", 10);
+    assertTrue(result.isSuccess());
+  }
+
+  @Test
+  public void testTransferFailsWhenNotSettledInTime() {
+    when(mockOperations.enqueue(any(), any(), any(), anyInt(), anyInt())).thenReturn(true);
+    when(mockOperations.cancelPending(any())).thenReturn(NettingBook.CancelOutcome.CANCELLED);
+    assertWorkflowIsInWaitingState(() -> nettedTransferWorkflow.transfer("t1", "a", "b", 10));
+    advanceCurrentTimeBy(NettedTransferWorkflow.SETTLEMENT_TIMEOUT.plus(Duration.ofSeconds(1)));
+    expectAndRecordWaitTimeout(() -> nettedTransferWorkflow.transfer("t1", "a", "b", 10));
+    verify(mockOperations, atLeastOnce()).cancelPending(eq("t1"));
+    val result = nettedTransferWorkflow.transfer("t1", "a", "b", 10);
+    assertFalse(result.isSuccess());
+    assertEquals("transfer was not settled in time", result.getMessage());
+  }
+
+  @Test
+  public void testTransferFailsWhenTheNettingBookLostIt() {
+    when(mockOperations.enqueue(any(), any(), any(), anyInt(), anyInt())).thenReturn(true);
+    when(mockOperations.cancelPending(any())).thenReturn(NettingBook.CancelOutcome.UNKNOWN);
+    assertWorkflowIsInWaitingState(() -> nettedTransferWorkflow.transfer("t1", "a", "b", 10));
+    advanceCurrentTimeBy(NettedTransferWorkflow.SETTLEMENT_TIMEOUT.plus(Duration.ofSeconds(1)));
+    expectAndRecordWaitTimeout(() -> nettedTransferWorkflow.transfer("t1", "a", "b", 10));
+    val result = nettedTransferWorkflow.transfer("t1", "a", "b", 10);
+    assertFalse(result.isSuccess());
+    assertEquals("transfer is no longer in the netting book", result.getMessage());
+  }
+
+  @Test
+  public void testDrainedTransferKeepsWaitingForItsSettlement() {
+    when(mockOperations.enqueue(any(), any(), any(), anyInt(), anyInt())).thenReturn(true);
+    when(mockOperations.cancelPending(any())).thenReturn(NettingBook.CancelOutcome.ALREADY_DRAINED);
+    assertWorkflowIsInWaitingState(() -> nettedTransferWorkflow.transfer("t1", "a", "b", 10));
+    advanceCurrentTimeBy(NettedTransferWorkflow.SETTLEMENT_TIMEOUT.plus(Duration.ofSeconds(1)));
+    // the transfer is part of a batch already, so it waits again instead of failing
+    expectAndRecordWaitTimeout(() -> nettedTransferWorkflow.transfer("t1", "a", "b", 10));
+    assertWorkflowIsInWaitingState(() -> nettedTransferWorkflow.transfer("t1", "a", "b", 10));
+    nettedTransferWorkflow.settled(new TransferWorkflow.TransferResult(true, "settled"));
+    assertTrue(nettedTransferWorkflow.transfer("t1", "a", "b", 10).isSuccess());
+  }
+}
@@ -0,0 +1,90 @@
+package skipper_demo.workflows;
+
+import io.github.rgamba.skipper.testUtils.WorkflowTest;
+import lombok.val;
+import org.junit.Before;
+import org.junit.Test;
+import skipper_demo.operations.NettingOperations;
+import skipper_demo.operations.Operations;
+import skipper_demo.services.LedgerError;
+import skipper_demo.services.NettingBook;
+import skipper_demo.services.PriorityLanes;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class NettingSettlementWorkflowTest extends WorkflowTest {
+  private NettingSettlementWorkflow settlementWorkflow;
+  private Operations mockOperations;
+  private NettingOperations mockNettingOperations;
+
+  @Before
+  public void setUp() {
+    super.setUp();
+    mockOperations = mock(Operations.class);
+    mockNettingOperations = mock(NettingOperations.class);
+    settlementWorkflow = new NettingSettlementWorkflow();
+    assertWorkflowIsValid(settlementWorkflow);
+    mockOperationField(settlementWorkflow, "operations", mockOperations);
+    mockOperationField(settlementWorkflow, "nettingOperations", mockNettingOperations);
+    // a owes 13 to b, 2 of which are fees
+    NettingBook.NetPosition position =
+        new NettingBook.NetPosition("a", "b", -13, 11, 2, Arrays.asList("t1", "t2"));
+    when(mockNettingOperations.drainBatch(eq("netting-0")))
+        .thenReturn(new NettingBook.SettlementBatch("netting-0", Collections.singletonList(position)));
+  }
+
+  @Test
+  public void testNetPositionsAreSettled() {
+    when(mockOperations.withdraw(any(), anyInt(), any(), anyString())).thenReturn("debit");
+    when(mockOperations.deposit(any(), anyInt(), any(), anyString())).thenReturn("credit");
+    val result = settleAfterTheInterval();
+    verify(mockOperations, atLeastOnce()).withdraw(eq("a"), eq(13), any(), anyString());
+    verify(mockOperations, atLeastOnce()).deposit(eq("b"), eq(11), any(), anyString());
+    verify(mockOperations, atLeastOnce()).deposit(eq(TransferWorkflow.SYSTEM_ACCOUNT), eq(2), any(), anyString());
+    verify(mockOperations, never()).withdraw(eq("b"), anyInt(), any(), anyString());
+    // Netted transfers are all small, so the net positions are posted in the instant lane.
+    verify(mockOperations, never()).withdraw(any(), anyInt(), eq(PriorityLanes.Lane.APPROVAL), anyString());
+    verify(mockOperations, never()).deposit(any(), anyInt(), eq(PriorityLanes.Lane.APPROVAL), anyString());
+    verify(mockOperations, never()).rollbackWithdraw(any(), any());
+    assertEquals(2, result.getSettledTransfers().size());
+    assertEquals("t1", result.getSettledTransfers().get(0).getTransferId());
+    assertEquals("t2", result.getSettledTransfers().get(1).getTransferId());
+    for (val settled : result.getSettledTransfers()) {
+      assertTrue(settled.getResult().isSuccess());
+    }
+  }
+
+  @Test
+  public void testFailedPositionIsCompensated() {
+    when(mockOperations.withdraw(any(), anyInt(), any(), anyString())).thenReturn("debit");
+    when(mockOperations.deposit(eq("b"), anyInt(), any(), anyString())).thenThrow(new LedgerError("account closed"));
+    val result = settleAfterTheInterval();
+    // the payer is refunded, and every transfer of the position fails
+    verify(mockOperations, atLeastOnce()).rollbackWithdraw(eq("debit"), anyString());
+    verify(mockOperations, never()).deposit(eq(TransferWorkflow.SYSTEM_ACCOUNT), anyInt(), any(), anyString());
+    assertEquals(2, result.getSettledTransfers().size());
+    for (val settled : result.getSettledTransfers()) {
+      assertFalse(settled.getResult().isSuccess());
+    }
+  }
+
+  @Test
+  public void testInstanceIdCanBeParsedBack() {
+    String instanceId = NettingSettlementWorkflow.instanceId("netting-eu", 12);
+    assertEquals("netting-eu", NettingSettlementWorkflow.cycleIdOf(instanceId));
+    assertEquals(12, NettingSettlementWorkflow.generationOf(instanceId));
+  }
+
+  private NettingSettlementWorkflow.SettlementResult settleAfterTheInterval() {
+    assertWorkflowIsInWaitingState(() -> settlementWorkflow.settle("netting", 0, 10));
+    advanceCurrentTimeBy(Duration.ofSeconds(11));
+    expectAndRecordWaitTimeout(() -> settlementWorkflow.settle("netting", 0, 10));
+    return settlementWorkflow.settle("netting", 0, 10);
+  }
+}
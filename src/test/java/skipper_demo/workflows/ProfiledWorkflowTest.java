@@ -0,0 +1,68 @@
+package skipper_demo.workflows;
+
+import io.github.rgamba.skipper.api.SkipperWorkflow;
+import io.github.rgamba.skipper.testUtils.WorkflowTest;
+import lombok.NonNull;
+
+import static org.junit.Assert.*;
+
+/**
+ * A {@link WorkflowTest} with assertions on the replay cost of the workflow under test, as recorded by {@link
+ * ReplayProfiler}. Every test gets a new profiler that records the state size after every replay, to be passed to
+ * the workflow under test.
+ */
+public abstract class ProfiledWorkflowTest extends WorkflowTest {
+  protected ReplayProfiler profiler;
+
+  @Override
+  public void setUp() {
+    super.setUp();
+    profiler = new ReplayProfiler(true, 1);
+  }
+
+  protected ReplayProfiler.StatsReport getReplayStats(
+      @NonNull Class<? extends SkipperWorkflow> workflowType) {
+    ReplayProfiler.StatsReport stats = profiler.getWorkflowReport(workflowType);
+    assertNotNull(String.format("%s was never replayed", workflowType.getSimpleName()), stats);
+    return stats;
+  }
+
+  protected ReplayProfiler.StatsReport getReplayStats(
+      @NonNull Class<? extends SkipperWorkflow> workflowType, @NonNull String instanceKey) {
+    ReplayProfiler.StatsReport stats = profiler.getInstanceReport(workflowType, instanceKey);
+    assertNotNull(
+        String.format("%s instance %s was never replayed", workflowType.getSimpleName(), instanceKey),
+        stats);
+    return stats;
+  }
+
+  protected void assertReplays(ReplayProfiler.StatsReport stats, long expected) {
+    assertEquals("number of replays", expected, stats.getReplays());
+  }
+
+  protected void assertPredicateEvaluationsAtMost(
+      ReplayProfiler.StatsReport stats, @NonNull String predicate, long max) {
+    ReplayProfiler.PredicateReport report = stats.getPredicates().get(predicate);
+    assertNotNull(String.format("predicate %s was never evaluated", predicate), report);
+    assertTrue(
+        String.format("predicate %s was evaluated %d times, expected at most %d", predicate, report.getEvaluations(), max),
+        report.getEvaluations() <= max);
+  }
+
+  protected void assertStateSizeAtMost(ReplayProfiler.StatsReport stats, int maxBytes) {
+    assertFalse("no state size was recorded", stats.getStateSizes().isEmpty());
+    for (int size : stats.getStateSizes()) {
+      assertTrue("state could not be serialized", size >= 0);
+      assertTrue(
+          String.format("state grew to %d bytes, expected at most %d", size, maxBytes), size <= maxBytes);
+    }
+  }
+
+  // Fails if the serialized state grew between the first and the last recorded replays.
+  protected void assertStateSizeIsStable(ReplayProfiler.StatsReport stats) {
+    assertFalse("no state size was recorded", stats.getStateSizes().isEmpty());
+    int first = stats.getStateSizes().get(0);
+    int last = stats.getStateSizes().get(stats.getStateSizes().size() - 1);
+    assertTrue(String.format("state grew from %d to %d bytes", first, last), last <= first);
+  }
+}
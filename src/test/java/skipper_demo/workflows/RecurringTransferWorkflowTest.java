@@ -0,0 +1,94 @@
+package skipper_demo.workflows;
+
+import io.github.rgamba.skipper.api.OperationError;
+import lombok.val;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class RecurringTransferWorkflowTest extends ProfiledWorkflowTest {
+  private RecurringTransferWorkflow recurringTransferWorkflow;
+  private TransferWorkflow mockTransferWorkflow;
+
+  @Before
+  public void setUp() {
+    super.setUp();
+    mockTransferWorkflow = mock(TransferWorkflow.class);
+    recurringTransferWorkflow = new RecurringTransferWorkflow(profiler);
+    assertWorkflowIsValid(recurringTransferWorkflow);
+    mockOperationField(recurringTransferWorkflow, "transferWorkflow", mockTransferWorkflow);
+  }
+
+  @Test
+  public void testCancelBeforeFirstTick() {
+    // the workflow waits for the first tick
+    assertWorkflowIsInWaitingState(() -> recurringTransferWorkflow.schedule("order", 0, "a", "b", 10, 60));
+    // cancelling the standing order completes the workflow without transferring anything
+    recurringTransferWorkflow.cancel("not needed anymore");
+    val result = recurringTransferWorkflow.schedule("order", 0, "a", "b", 10, 60);
+    assertTrue(result.isCancelled());
+    assertEquals(0, result.getTicks());
+    verify(mockTransferWorkflow, never()).transfer(any(), any(), any(), anyInt());
+  }
+
+  @Test
+  public void testTransferIsExecutedOnEveryTick() {
+    when(mockTransferWorkflow.transfer(any(), any(), any(), anyInt()))
+        .thenReturn(new TransferWorkflow.TransferResult(true, ""));
+    assertWorkflowIsInWaitingState(() -> recurringTransferWorkflow.schedule("order", 0, "a", "b", 10, 60));
+    // once the interval elapses the transfer is executed and the workflow waits for the next tick
+    advanceCurrentTimeBy(Duration.ofSeconds(61));
+    expectAndRecordWaitTimeout(() -> recurringTransferWorkflow.schedule("order", 0, "a", "b", 10, 60));
+    verify(mockTransferWorkflow, times(1)).transfer(eq(RecurringTransferWorkflow.tickId("order", 0, 1)), eq("a"), eq("b"), eq(10));
+    assertEquals(Integer.valueOf(1), recurringTransferWorkflow.ticks);
+  }
+
+  @Test
+  public void testTransferErrorIsCountedAsAFailedTick() {
+    when(mockTransferWorkflow.transfer(any(), any(), any(), anyInt()))
+        .thenThrow(new OperationError(new RuntimeException("transfer timed out")));
+    assertWorkflowIsInWaitingState(() -> recurringTransferWorkflow.schedule("order", 0, "a", "b", 10, 60));
+    advanceCurrentTimeBy(Duration.ofSeconds(61));
+    // the standing order keeps waiting for the next tick instead of ending in error
+    expectAndRecordWaitTimeout(() -> recurringTransferWorkflow.schedule("order", 0, "a", "b", 10, 60));
+    assertEquals(Integer.valueOf(1), recurringTransferWorkflow.ticks);
+    assertEquals(Integer.valueOf(1), recurringTransferWorkflow.failedTicks);
+  }
+
+  @Test
+  public void testInvalidIntervalIsRejected() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> recurringTransferWorkflow.schedule("order", 0, "a", "b", 10, 0));
+  }
+
+  @Test
+  public void testInstanceIdsAreDeterministicPerGeneration() {
+    assertEquals(
+        RecurringTransferWorkflow.instanceId("order", 3),
+        RecurringTransferWorkflow.instanceId("order", 3));
+    assertNotEquals(
+        RecurringTransferWorkflow.instanceId("order", 3),
+        RecurringTransferWorkflow.instanceId("order", 4));
+  }
+
+  @Test
+  public void testReplayCostIsProfiledPerGeneration() {
+    when(mockTransferWorkflow.transfer(any(), any(), any(), anyInt()))
+        .thenReturn(new TransferWorkflow.TransferResult(true, ""));
+    assertWorkflowIsInWaitingState(() -> recurringTransferWorkflow.schedule("order", 2, "a", "b", 10, 60));
+    advanceCurrentTimeBy(Duration.ofSeconds(61));
+    expectAndRecordWaitTimeout(() -> recurringTransferWorkflow.schedule("order", 2, "a", "b", 10, 60));
+    val stats = getReplayStats(RecurringTransferWorkflow.class, RecurringTransferWorkflow.instanceId("order", 2));
+    assertReplays(stats, 2);
+    assertPredicateEvaluationsAtMost(stats, "cancelled", 3);
+    // The counters are the only state, so it doesn't grow with the number of ticks
+    assertStateSizeIsStable(stats);
+    assertNull(profiler.getInstanceReport(RecurringTransferWorkflow.class, "order-3"));
+  }
+}
@@ -0,0 +1,48 @@
+package skipper_demo.workflows;
+
+import io.github.rgamba.skipper.api.SkipperWorkflow;
+import io.github.rgamba.skipper.api.annotations.StateField;
+import lombok.val;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ReplayProfilerTest {
+  @Test
+  public void testStateSizeIsSampledEveryNReplays() {
+    val profiler = new ReplayProfiler(true, 3);
+    val workflow = new CountingWorkflow();
+    for (int i = 0; i < 7; i++) {
+      profiler.profile(workflow, null, () -> workflow.replays++);
+    }
+    val stats = profiler.getWorkflowReport(CountingWorkflow.class);
+    assertEquals(7, stats.getReplays());
+    // Replays 1, 4 and 7.
+    assertEquals(3, stats.getStateSizes().size());
+  }
+
+  @Test
+  public void testStateSizeIsNotMeasuredWhenTheSampleRateIsZero() {
+    val profiler = new ReplayProfiler(true, 0);
+    val workflow = new CountingWorkflow();
+    profiler.profile(workflow, "instance", () -> workflow.replays++);
+    assertEquals(1, profiler.getWorkflowReport(CountingWorkflow.class).getReplays());
+    assertTrue(profiler.getWorkflowReport(CountingWorkflow.class).getStateSizes().isEmpty());
+    assertTrue(profiler.getInstanceReport(CountingWorkflow.class, "instance").getStateSizes().isEmpty());
+  }
+
+  @Test
+  public void testDisabledProfilerOnlyRunsTheCode() {
+    val profiler = ReplayProfiler.disabled();
+    val workflow = new CountingWorkflow();
+    assertEquals(0, (int) profiler.profile(workflow, "instance", () -> workflow.replays++));
+    assertTrue(profiler.predicate(workflow, "replayed", () -> workflow.replays > 0));
+    assertNull(profiler.getWorkflowReport(CountingWorkflow.class));
+    assertNull(profiler.getInstanceReport(CountingWorkflow.class, "instance"));
+    assertTrue(profiler.getReport().getWorkflows().isEmpty());
+  }
+
+  public static class CountingWorkflow implements SkipperWorkflow {
+    @StateField Integer replays = 0;
+  }
+}
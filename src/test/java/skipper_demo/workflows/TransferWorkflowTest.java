@@ -6,8 +6,12 @@ import lombok.val;
 import org.junit.Before;
 import org.junit.Test;
 import skipper_demo.operations.Operations;
+import skipper_demo.services.FxQuote;
+import skipper_demo.services.PriorityLanes;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 
@@ -22,29 +26,108 @@ public class TransferWorkflowTest extends WorkflowTest {
     transferWorkflow = new TransferWorkflow();
     assertWorkflowIsValid(transferWorkflow);
     mockOperationField(transferWorkflow, "operations", mockOperations);
+    when(mockOperations.quoteTransfer(any(), any()))
+        .thenReturn(new FxQuote("USD", "USD", "USD", 1_000_000L, 1_000_000L, 1));
   }
 
   @Test
   public void testTransferHappyPath() throws Exception {
     // given
-    when(mockOperations.withdraw(any(), anyInt(), any())).thenReturn("");
-    when(mockOperations.deposit(any(), anyInt(), any())).thenReturn("");
+    when(mockOperations.withdraw(any(), anyInt(), any(), any())).thenReturn("");
+    when(mockOperations.deposit(any(), anyInt(), any(), any())).thenReturn("");
     // when
-    val result = transferWorkflow.transfer("a", "b", 10);
+    val result = transferWorkflow.transfer("t1", "a", "b", 10);
     // then
     assertEquals(1, 1);
-    verify(mockOperations, times(1)).withdraw(eq("a"), eq(11), anyString());
-    verify(mockOperations, times(2)).deposit(any(), anyInt(), anyString());
+    verify(mockOperations, times(1)).withdraw(eq("a"), eq(11), any(), anyString());
+    verify(mockOperations, times(2)).deposit(any(), anyInt(), any(), anyString());
+  }
+
+  @Test
+  public void testTransferBetweenCurrencies() throws Exception {
+    // given
+    when(mockOperations.quoteTransfer(any(), any()))
+        .thenReturn(new FxQuote("EUR", "MXN", "USD", 18_620_690L, 1_080_000L, 7));
+    when(mockOperations.withdraw(any(), anyInt(), any(), any())).thenReturn("");
+    when(mockOperations.deposit(any(), anyInt(), any(), any())).thenReturn("");
+    // when
+    val result = transferWorkflow.transfer("t1", "a", "b", 10);
+    // then
+    assertTrue(result.isSuccess());
+    verify(mockOperations, times(1)).withdraw(eq("a"), eq(11), any(), anyString());
+    verify(mockOperations, times(1)).deposit(eq("b"), eq(186), any(), anyString());
+    verify(mockOperations, times(1))
+        .deposit(eq(TransferWorkflow.SYSTEM_ACCOUNT), eq(1), any(), anyString());
+    assertEquals(7, transferWorkflow.fxQuote.getVersion());
+  }
+
+  @Test
+  public void testPostingsRunInTheLaneOfTheTransfer() throws Exception {
+    // given
+    when(mockOperations.withdraw(any(), anyInt(), any(), any())).thenReturn("");
+    when(mockOperations.deposit(any(), anyInt(), any(), any())).thenReturn("");
+    // when
+    val result = transferWorkflow.transfer("t1", "a", "b", 95);
+    // then
+    assertTrue(result.isSuccess());
+    // With the fee, 105 is withdrawn, above the approval threshold. It still belongs to a small transfer.
+    verify(mockOperations, times(1)).withdraw(eq("a"), eq(105), eq(PriorityLanes.Lane.INSTANT), anyString());
+    verify(mockOperations, times(2)).deposit(any(), anyInt(), eq(PriorityLanes.Lane.INSTANT), anyString());
+  }
+
+  @Test
+  public void testPostingsOfApprovedTransfersRunInTheApprovalLane() throws Exception {
+    // given
+    ApprovalWorkflow mockApproval = mock(ApprovalWorkflow.class);
+    mockOperationField(transferWorkflow, "approvalWorkflow", mockApproval);
+    when(mockApproval.getApproval(any(), anyInt())).thenReturn(true);
+    when(mockOperations.withdraw(any(), anyInt(), any(), any())).thenReturn("");
+    when(mockOperations.deposit(any(), anyInt(), any(), any())).thenReturn("");
+    // when
+    val result = transferWorkflow.transfer("t1", "a", "b", 100);
+    // then
+    assertTrue(result.isSuccess());
+    verify(mockOperations, times(1)).withdraw(eq("a"), eq(110), eq(PriorityLanes.Lane.APPROVAL), anyString());
+    // Including the fee deposit, even though it's a small amount.
+    verify(mockOperations, times(1))
+        .deposit(eq(TransferWorkflow.SYSTEM_ACCOUNT), eq(10), eq(PriorityLanes.Lane.APPROVAL), anyString());
+    verify(mockOperations, never()).deposit(any(), anyInt(), eq(PriorityLanes.Lane.INSTANT), anyString());
+  }
+
+  @Test
+  public void testAmountThatConvertsToNothingIsNotPosted() throws Exception {
+    // given 5 MXN are worth 0 USD once rounded
+    when(mockOperations.quoteTransfer(any(), any()))
+        .thenReturn(new FxQuote("MXN", "USD", "MXN", 58_000L, 1_000_000L, 1));
+    // when
+    val result = transferWorkflow.transfer("t1", "a", "b", 5);
+    // then
+    assertFalse(result.isSuccess());
+    verify(mockOperations, never()).withdraw(any(), anyInt(), any(), anyString());
+    verify(mockOperations, never()).deposit(any(), anyInt(), any(), anyString());
+  }
+
+  @Test
+  public void testAmountThatOverflowsWhenConvertedIsNotPosted() throws Exception {
+    // given
+    when(mockOperations.quoteTransfer(any(), any()))
+        .thenReturn(new FxQuote("USD", "XYZ", "USD", 1_000_000_000_000_000L, 1_000_000L, 1));
+    // when
+    val result = transferWorkflow.transfer("t1", "a", "b", 50);
+    // then
+    assertFalse(result.isSuccess());
+    verify(mockOperations, never()).withdraw(any(), anyInt(), any(), anyString());
+    verify(mockOperations, never()).deposit(any(), anyInt(), any(), anyString());
   }
 
   @Test
   public void testTransferWhenDepositFails() throws Exception {
     // given
-    when(mockOperations.withdraw(any(), anyInt(), any())).thenReturn("123");
-    when(mockOperations.deposit(any(), anyInt(), any()))
+    when(mockOperations.withdraw(any(), anyInt(), any(), any())).thenReturn("123");
+    when(mockOperations.deposit(any(), anyInt(), any(), any()))
         .thenThrow(new OperationError(new RuntimeException("something went wrong")));
     // when
-    val result = transferWorkflow.transfer("a", "b", 10);
+    val result = transferWorkflow.transfer("t1", "a", "b", 10);
     // then
     assertEquals(1, 1);
     verify(mockOperations, times(1)).rollbackWithdraw(eq("123"), anyString());
@@ -1,6 +1,6 @@
 package skipper_demo.workflows;
 
-import io.github.rgamba.skipper.testUtils.WorkflowTest;
+import lombok.val;
 import org.junit.Before;
 import org.junit.Test;
 import skipper_demo.operations.VendingMachineOperations;
@@ -10,7 +10,7 @@ import java.time.Duration;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
-public class VendingMachineTest extends WorkflowTest {
+public class VendingMachineTest extends ProfiledWorkflowTest {
     private VendingMachine vendingMachine;
     private VendingMachineOperations mockOperations;
 
@@ -18,7 +18,7 @@ public class VendingMachineTest extends WorkflowTest {
     public void setUp() {
         super.setUp();
         mockOperations = mock(VendingMachineOperations.class);
-        vendingMachine = new VendingMachine();
+        vendingMachine = new VendingMachine(profiler);
         assertWorkflowIsValid(vendingMachine);
         mockOperationField(vendingMachine, "machineOperations", mockOperations);
     }
@@ -26,23 +26,23 @@ public class VendingMachineTest extends WorkflowTest {
     @Test
     public void testHappyPath() {
         // the first time around, the workflow will wait for products to be added to the cart
-        assertWorkflowIsInWaitingState(() -> vendingMachine.startSession());
+        assertWorkflowIsInWaitingState(() -> vendingMachine.startSession("session"));
         assertEquals(VendingMachine.VendingStage.WAITING_FOR_PRODUCTS, vendingMachine.stage);
         // Let's add a product to the cart
         vendingMachine.addProduct("coke");
         vendingMachine.addProduct("chips");
         assertEquals(2, vendingMachine.cart.size());
         // The workflow should still be waiting for more products
-        assertWorkflowIsInWaitingState(() -> vendingMachine.startSession());
+        assertWorkflowIsInWaitingState(() -> vendingMachine.startSession("session"));
         assertEquals(VendingMachine.VendingStage.WAITING_FOR_PRODUCTS, vendingMachine.stage);
         // Now let's add a coin, this should move the workflow to the next stage, no more waiting for products
         vendingMachine.insertCoin(1);
         assertEquals(1, vendingMachine.balance);
-        assertWorkflowIsInWaitingState(() -> vendingMachine.startSession());
+        assertWorkflowIsInWaitingState(() -> vendingMachine.startSession("session"));
         assertEquals(VendingMachine.VendingStage.WAITING_FOR_COINS, vendingMachine.stage);
         // Now let's add another coin (more than needed so we can test the change being returned)
         vendingMachine.insertCoin(8);
-        vendingMachine.startSession(); // Workflow should've completed.
+        vendingMachine.startSession("session"); // Workflow should've completed.
         // Verify that product was dispensed and that change was returned
         verify(mockOperations, times(1)).dispense(eq(vendingMachine.cart));
         verify(mockOperations, times(1)).returnChange(eq(1));
@@ -51,14 +51,14 @@ public class VendingMachineTest extends WorkflowTest {
     @Test
     public void testWhenProductSelectionTimesOut_WorkflowProceedsToNextStage() {
         // the first time around, the workflow will wait for products to be added to the cart
-        assertWorkflowIsInWaitingState(() -> vendingMachine.startSession());
+        assertWorkflowIsInWaitingState(() -> vendingMachine.startSession("session"));
         assertEquals(VendingMachine.VendingStage.WAITING_FOR_PRODUCTS, vendingMachine.stage);
         // Let's add a product to the cart
         vendingMachine.addProduct("coke");
         // Now let the workflow wait for 30 seconds
         advanceCurrentTimeBy(Duration.ofSeconds(31));
         // Now the workflow should be in waiting state but in the WAIT_FOR_COINS stage
-        expectAndRecordWaitTimeout(() -> vendingMachine.startSession());
+        expectAndRecordWaitTimeout(() -> vendingMachine.startSession("session"));
         assertEquals(VendingMachine.VendingStage.WAITING_FOR_COINS, vendingMachine.stage);
     }
 
@@ -71,7 +71,7 @@ public class VendingMachineTest extends WorkflowTest {
     public void testAddingProductWhenSessionIsInCheckoutPhaseShouldFail() {
         vendingMachine.addProduct("coke");
         vendingMachine.insertCoin(1);
-        assertWorkflowIsInWaitingState(() -> vendingMachine.startSession());
+        assertWorkflowIsInWaitingState(() -> vendingMachine.startSession("session"));
         assertThrows(IllegalArgumentException.class, () -> vendingMachine.addProduct("coke"));
     }
 
@@ -79,9 +79,26 @@ public class VendingMachineTest extends WorkflowTest {
     public void testWaitingForCoinWhenWaitTimesOutBalanceIsReturned() {
         vendingMachine.addProduct("coke");
         vendingMachine.insertCoin(1);
-        assertWorkflowIsInWaitingState(() -> vendingMachine.startSession());
+        assertWorkflowIsInWaitingState(() -> vendingMachine.startSession("session"));
         advanceCurrentTimeBy(Duration.ofSeconds(31));
-        expectAndRecordWaitTimeout(() -> vendingMachine.startSession());
+        expectAndRecordWaitTimeout(() -> vendingMachine.startSession("session"));
         verify(mockOperations, times(1)).returnCoins(eq(1));
     }
+
+    @Test
+    public void testReplaysAreProfiled() {
+        assertWorkflowIsInWaitingState(() -> vendingMachine.startSession("session"));
+        vendingMachine.addProduct("coke");
+        assertWorkflowIsInWaitingState(() -> vendingMachine.startSession("session"));
+        vendingMachine.insertCoin(3);
+        vendingMachine.startSession("session");
+        val stats = getReplayStats(VendingMachine.class, "session");
+        assertReplays(stats, 3);
+        // Every replay goes through the product selection loop again, so its predicate is evaluated once per loop
+        // iteration on every replay
+        assertPredicateEvaluationsAtMost(stats, "cartChangedOrPaid", 4);
+        assertPredicateEvaluationsAtMost(stats, "balanceCovered", 2);
+        assertEquals(3, stats.getStateSizes().size());
+        assertStateSizeAtMost(stats, 256);
+    }
 }